@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public final class AllocationInfo
+{
+
+    private String ID;
+    private String Name;
+    private String JobID;
+    private String ClientStatus;
+    private String DesiredStatus;
+
+    public AllocationInfo(
+        String ID,
+        String name,
+        String jobID,
+        String clientStatus,
+        String desiredStatus)
+    {
+        this.ID = ID;
+        Name = name;
+        JobID = jobID;
+        ClientStatus = clientStatus;
+        DesiredStatus = desiredStatus;
+    }
+
+    public String getID() {
+        return ID;
+    }
+
+    public void setID(String ID) {
+        this.ID = ID;
+    }
+
+    public String getName() {
+        return Name;
+    }
+
+    public void setName(String name) {
+        Name = name;
+    }
+
+    public String getJobID() {
+        return JobID;
+    }
+
+    public void setJobID(String jobID) {
+        JobID = jobID;
+    }
+
+    public String getClientStatus() {
+        return ClientStatus;
+    }
+
+    public void setClientStatus(String clientStatus) {
+        ClientStatus = clientStatus;
+    }
+
+    public String getDesiredStatus() {
+        return DesiredStatus;
+    }
+
+    public void setDesiredStatus(String desiredStatus) {
+        DesiredStatus = desiredStatus;
+    }
+
+    /**
+     * The index of this allocation within its task group, parsed from a name like {@code job.group[3]}.
+     */
+    public int getIndex() {
+        int open = Name == null ? -1 : Name.lastIndexOf('[');
+        if (open < 0 || !Name.endsWith("]"))
+            return -1;
+
+        try {
+            return Integer.parseInt(Name.substring(open + 1, Name.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public boolean isTerminal() {
+        return "complete".equals(ClientStatus) || "failed".equals(ClientStatus) || "lost".equals(ClientStatus);
+    }
+}
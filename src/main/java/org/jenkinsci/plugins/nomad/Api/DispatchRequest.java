@@ -0,0 +1,20 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+import java.util.Map;
+
+public class DispatchRequest {
+
+    private Map<String, String> Meta;
+
+    public DispatchRequest(Map<String, String> meta) {
+        Meta = meta;
+    }
+
+    public Map<String, String> getMeta() {
+        return Meta;
+    }
+
+    public void setMeta(Map<String, String> meta) {
+        Meta = meta;
+    }
+}
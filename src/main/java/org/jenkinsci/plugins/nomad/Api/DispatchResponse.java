@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public final class DispatchResponse {
+
+    private String DispatchedJobID;
+    private String EvalID;
+
+    public DispatchResponse(String dispatchedJobID, String evalID) {
+        DispatchedJobID = dispatchedJobID;
+        EvalID = evalID;
+    }
+
+    public String getDispatchedJobID() {
+        return DispatchedJobID;
+    }
+
+    public void setDispatchedJobID(String dispatchedJobID) {
+        DispatchedJobID = dispatchedJobID;
+    }
+
+    public String getEvalID() {
+        return EvalID;
+    }
+
+    public void setEvalID(String evalID) {
+        EvalID = evalID;
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.nomad.Api;
 
 import java.util.List;
+import java.util.Map;
 
 public final class Job {
 
@@ -12,6 +13,8 @@ public final class Job {
     private String[] Datacenters;
     private List<Constraint> Constraints;
     private TaskGroup[] TaskGroups;
+    private Map<String, String> Meta;
+    private ParameterizedJobConfig ParameterizedJob;
 
     public Job(
         String ID,
@@ -97,4 +100,20 @@ public final class Job {
         Constraints = constraints;
     }
 
+    public Map<String, String> getMeta() {
+        return Meta;
+    }
+
+    public void setMeta(Map<String, String> meta) {
+        Meta = meta;
+    }
+
+    public ParameterizedJobConfig getParameterizedJob() {
+        return ParameterizedJob;
+    }
+
+    public void setParameterizedJob(ParameterizedJobConfig parameterizedJob) {
+        ParameterizedJob = parameterizedJob;
+    }
+
 }
@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public final class JobDeregisterResponse {
+
+    private String EvalID;
+    private Long EvalCreateIndex;
+    private Long JobModifyIndex;
+
+    public JobDeregisterResponse(String evalID, Long evalCreateIndex, Long jobModifyIndex) {
+        EvalID = evalID;
+        EvalCreateIndex = evalCreateIndex;
+        JobModifyIndex = jobModifyIndex;
+    }
+
+    public String getEvalID() {
+        return EvalID;
+    }
+
+    public void setEvalID(String evalID) {
+        EvalID = evalID;
+    }
+
+    public Long getEvalCreateIndex() {
+        return EvalCreateIndex;
+    }
+
+    public void setEvalCreateIndex(Long evalCreateIndex) {
+        EvalCreateIndex = evalCreateIndex;
+    }
+
+    public Long getJobModifyIndex() {
+        return JobModifyIndex;
+    }
+
+    public void setJobModifyIndex(Long jobModifyIndex) {
+        JobModifyIndex = jobModifyIndex;
+    }
+}
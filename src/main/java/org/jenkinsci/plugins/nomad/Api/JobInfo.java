@@ -8,6 +8,8 @@ public final class JobInfo
     private String Type;
     private String Status;
     private Integer Priority;
+    private String ParentID;
+    private Boolean ParameterizedJob;
 
     public JobInfo(
         String ID,
@@ -64,4 +66,24 @@ public final class JobInfo
     {
         Status = status;
     }
+
+    public String getParentID()
+    {
+        return ParentID;
+    }
+
+    public void setParentID(String parentID)
+    {
+        ParentID = parentID;
+    }
+
+    public Boolean getParameterizedJob()
+    {
+        return ParameterizedJob;
+    }
+
+    public void setParameterizedJob(Boolean parameterizedJob)
+    {
+        ParameterizedJob = parameterizedJob;
+    }
 }
@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public final class JobRegisterResponse {
+
+    private String EvalID;
+    private Long EvalCreateIndex;
+    private Long JobModifyIndex;
+    private String Warnings;
+
+    public JobRegisterResponse(String evalID, Long evalCreateIndex, Long jobModifyIndex, String warnings) {
+        EvalID = evalID;
+        EvalCreateIndex = evalCreateIndex;
+        JobModifyIndex = jobModifyIndex;
+        Warnings = warnings;
+    }
+
+    public String getEvalID() {
+        return EvalID;
+    }
+
+    public void setEvalID(String evalID) {
+        EvalID = evalID;
+    }
+
+    public Long getEvalCreateIndex() {
+        return EvalCreateIndex;
+    }
+
+    public void setEvalCreateIndex(Long evalCreateIndex) {
+        EvalCreateIndex = evalCreateIndex;
+    }
+
+    public Long getJobModifyIndex() {
+        return JobModifyIndex;
+    }
+
+    public void setJobModifyIndex(Long jobModifyIndex) {
+        JobModifyIndex = jobModifyIndex;
+    }
+
+    public String getWarnings() {
+        return Warnings;
+    }
+
+    public void setWarnings(String warnings) {
+        Warnings = warnings;
+    }
+}
@@ -0,0 +1,1132 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written, reflection-free JSON codecs for the Nomad API model.
+ *
+ * Field names and field order follow the declaration order of the model classes, so the output is
+ * identical to what a reflective {@link Gson} produces for the same objects. Unknown fields are skipped
+ * when reading, which keeps the codecs tolerant of newer Nomad versions.
+ */
+public final class NomadJson {
+
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new Factory())
+            .create();
+
+    private NomadJson() {
+    }
+
+    private static final class Factory implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> raw = type.getRawType();
+
+            if (raw == Job.class) return (TypeAdapter<T>) new JobAdapter(gson);
+            if (raw == TaskGroup.class) return (TypeAdapter<T>) new TaskGroupAdapter(gson);
+            if (raw == Task.class) return (TypeAdapter<T>) new TaskAdapter(gson);
+            if (raw == Resource.class) return (TypeAdapter<T>) new ResourceAdapter(gson);
+            if (raw == Network.class) return (TypeAdapter<T>) new NetworkAdapter(gson);
+            if (raw == Port.class) return (TypeAdapter<T>) new PortAdapter();
+            if (raw == Constraint.class) return (TypeAdapter<T>) new ConstraintAdapter();
+            if (raw == Artifact.class) return (TypeAdapter<T>) new ArtifactAdapter(gson);
+            if (raw == LogConfig.class) return (TypeAdapter<T>) new LogConfigAdapter();
+            if (raw == EphemeralDisk.class) return (TypeAdapter<T>) new EphemeralDiskAdapter();
+            if (raw == RestartPolicy.class) return (TypeAdapter<T>) new RestartPolicyAdapter();
+            if (raw == ReschedulePolicy.class) return (TypeAdapter<T>) new ReschedulePolicyAdapter();
+            if (raw == Update.class) return (TypeAdapter<T>) new UpdateAdapter();
+            if (raw == Template.class) return (TypeAdapter<T>) new TemplateAdapter();
+            if (raw == ParameterizedJobConfig.class) return (TypeAdapter<T>) new ParameterizedJobConfigAdapter();
+            if (raw == DispatchRequest.class) return (TypeAdapter<T>) new DispatchRequestAdapter(gson);
+            if (raw == DispatchResponse.class) return (TypeAdapter<T>) new DispatchResponseAdapter();
+            if (raw == JobRegisterResponse.class) return (TypeAdapter<T>) new JobRegisterResponseAdapter();
+            if (raw == JobDeregisterResponse.class) return (TypeAdapter<T>) new JobDeregisterResponseAdapter();
+            if (raw == JobInfo.class) return (TypeAdapter<T>) new JobInfoAdapter();
+            if (raw == AllocationInfo.class) return (TypeAdapter<T>) new AllocationInfoAdapter();
+
+            return null;
+        }
+    }
+
+    private static final class JobAdapter extends TypeAdapter<Job> {
+
+        private final TypeAdapter<Constraint> constraint;
+        private final TypeAdapter<TaskGroup> taskGroup;
+        private final TypeAdapter<Map<String, String>> meta;
+        private final TypeAdapter<ParameterizedJobConfig> parameterized;
+
+        JobAdapter(Gson gson) {
+            this.constraint = gson.getAdapter(Constraint.class);
+            this.taskGroup = gson.getAdapter(TaskGroup.class);
+            this.meta = gson.getAdapter(new TypeToken<Map<String, String>>() {});
+            this.parameterized = gson.getAdapter(ParameterizedJobConfig.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Job job) throws IOException {
+            if (job == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "ID", job.getID());
+            writeString(out, "Name", job.getName());
+            writeString(out, "Region", job.getRegion());
+            writeString(out, "Type", job.getType());
+            writeNumber(out, "Priority", job.getPriority());
+            writeStrings(out, "Datacenters", job.getDatacenters());
+            writeList(out, "Constraints", job.getConstraints(), constraint);
+            writeArray(out, "TaskGroups", job.getTaskGroups(), taskGroup);
+            writeObject(out, "Meta", job.getMeta(), meta);
+            writeObject(out, "ParameterizedJob", job.getParameterizedJob(), parameterized);
+            out.endObject();
+        }
+
+        @Override
+        public Job read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null, name = null, region = null, type = null;
+            Integer priority = null;
+            String[] datacenters = null;
+            List<Constraint> constraints = null;
+            List<TaskGroup> taskGroups = null;
+            Map<String, String> jobMeta = null;
+            ParameterizedJobConfig parameterizedJob = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "ID": id = readString(in); break;
+                    case "Name": name = readString(in); break;
+                    case "Region": region = readString(in); break;
+                    case "Type": type = readString(in); break;
+                    case "Priority": priority = readInteger(in); break;
+                    case "Datacenters": datacenters = readStrings(in); break;
+                    case "Constraints": constraints = readList(in, constraint); break;
+                    case "TaskGroups": taskGroups = readList(in, taskGroup); break;
+                    case "Meta": jobMeta = meta.read(in); break;
+                    case "ParameterizedJob": parameterizedJob = parameterized.read(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Job job = new Job(id, name, region, type, priority, datacenters, constraints,
+                    taskGroups == null ? null : taskGroups.toArray(new TaskGroup[0]));
+            job.setMeta(jobMeta);
+            job.setParameterizedJob(parameterizedJob);
+            return job;
+        }
+    }
+
+    private static final class TaskGroupAdapter extends TypeAdapter<TaskGroup> {
+
+        private final TypeAdapter<Task> task;
+        private final TypeAdapter<RestartPolicy> restartPolicy;
+        private final TypeAdapter<ReschedulePolicy> reschedulePolicy;
+        private final TypeAdapter<EphemeralDisk> ephemeralDisk;
+
+        TaskGroupAdapter(Gson gson) {
+            this.task = gson.getAdapter(Task.class);
+            this.restartPolicy = gson.getAdapter(RestartPolicy.class);
+            this.reschedulePolicy = gson.getAdapter(ReschedulePolicy.class);
+            this.ephemeralDisk = gson.getAdapter(EphemeralDisk.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, TaskGroup group) throws IOException {
+            if (group == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "Name", group.getName());
+            writeNumber(out, "Count", group.getCount());
+            writeArray(out, "Tasks", group.getTasks(), task);
+            writeObject(out, "RestartPolicy", group.getRestartPolicy(), restartPolicy);
+            writeObject(out, "ReschedulePolicy", group.getReschedulePolicy(), reschedulePolicy);
+            writeObject(out, "EphemeralDisk", group.getEphemeralDisk(), ephemeralDisk);
+            out.endObject();
+        }
+
+        @Override
+        public TaskGroup read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String name = null;
+            Integer count = null;
+            List<Task> tasks = null;
+            RestartPolicy restart = null;
+            ReschedulePolicy reschedule = null;
+            EphemeralDisk disk = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Name": name = readString(in); break;
+                    case "Count": count = readInteger(in); break;
+                    case "Tasks": tasks = readList(in, task); break;
+                    case "RestartPolicy": restart = restartPolicy.read(in); break;
+                    case "ReschedulePolicy": reschedule = reschedulePolicy.read(in); break;
+                    case "EphemeralDisk": disk = ephemeralDisk.read(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new TaskGroup(name, count, tasks == null ? null : tasks.toArray(new Task[0]), restart, reschedule, disk);
+        }
+    }
+
+    private static final class TaskAdapter extends TypeAdapter<Task> {
+
+        private final TypeAdapter<Map<String, Object>> config;
+        private final TypeAdapter<Resource> resource;
+        private final TypeAdapter<LogConfig> logConfig;
+        private final TypeAdapter<Artifact> artifact;
+        private final TypeAdapter<Map<String, String>> env;
+        private final TypeAdapter<Template> template;
+
+        TaskAdapter(Gson gson) {
+            this.config = gson.getAdapter(new TypeToken<Map<String, Object>>() {});
+            this.resource = gson.getAdapter(Resource.class);
+            this.logConfig = gson.getAdapter(LogConfig.class);
+            this.artifact = gson.getAdapter(Artifact.class);
+            this.env = gson.getAdapter(new TypeToken<Map<String, String>>() {});
+            this.template = gson.getAdapter(Template.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Task task) throws IOException {
+            if (task == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "Name", task.getName());
+            writeString(out, "Driver", task.getDriver());
+            writeString(out, "User", task.getUser());
+            writeObject(out, "Config", task.getConfig(), config);
+            writeObject(out, "Resources", task.getResources(), resource);
+            writeObject(out, "LogConfig", task.getLogConfig(), logConfig);
+            writeArray(out, "Artifacts", task.getArtifacts(), artifact);
+            writeObject(out, "Env", task.getEnv(), env);
+            writeArray(out, "Templates", task.getTemplates(), template);
+            out.endObject();
+        }
+
+        @Override
+        public Task read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String name = null, driver = null, user = null;
+            Map<String, Object> driverConfig = null;
+            Resource resources = null;
+            LogConfig logs = null;
+            List<Artifact> artifacts = null;
+            Map<String, String> environment = null;
+            List<Template> templates = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Name": name = readString(in); break;
+                    case "Driver": driver = readString(in); break;
+                    case "User": user = readString(in); break;
+                    case "Config": driverConfig = config.read(in); break;
+                    case "Resources": resources = resource.read(in); break;
+                    case "LogConfig": logs = logConfig.read(in); break;
+                    case "Artifacts": artifacts = readList(in, artifact); break;
+                    case "Env": environment = env.read(in); break;
+                    case "Templates": templates = readList(in, template); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Task task = new Task(name, driver, user, driverConfig, resources, logs,
+                    artifacts == null ? null : artifacts.toArray(new Artifact[0]));
+            task.setEnv(environment);
+            task.setTemplates(templates == null ? null : templates.toArray(new Template[0]));
+            return task;
+        }
+    }
+
+    private static final class ResourceAdapter extends TypeAdapter<Resource> {
+
+        private final TypeAdapter<Network> network;
+
+        ResourceAdapter(Gson gson) {
+            this.network = gson.getAdapter(Network.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Resource resource) throws IOException {
+            if (resource == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "CPU", resource.getCPU());
+            writeNumber(out, "MemoryMB", resource.getMemoryMB());
+            writeList(out, "Networks", resource.getNetworks(), network);
+            out.endObject();
+        }
+
+        @Override
+        public Resource read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer cpu = null, memory = null;
+            List<Network> networks = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "CPU": cpu = readInteger(in); break;
+                    case "MemoryMB": memory = readInteger(in); break;
+                    case "Networks": networks = readList(in, network); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Resource(cpu, memory, networks);
+        }
+    }
+
+    private static final class NetworkAdapter extends TypeAdapter<Network> {
+
+        private final TypeAdapter<Port> port;
+
+        NetworkAdapter(Gson gson) {
+            this.port = gson.getAdapter(Port.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Network network) throws IOException {
+            if (network == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "MBits", network.getMBits());
+            writeList(out, "ReservedPorts", network.getReservedPorts(), port);
+            out.endObject();
+        }
+
+        @Override
+        public Network read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer mbits = null;
+            List<Port> ports = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "MBits": mbits = readInteger(in); break;
+                    case "ReservedPorts": ports = readList(in, port); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Network(mbits, ports);
+        }
+    }
+
+    private static final class PortAdapter extends TypeAdapter<Port> {
+
+        @Override
+        public void write(JsonWriter out, Port port) throws IOException {
+            if (port == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "Label", port.getLabel());
+            writeNumber(out, "Value", port.getValue());
+            out.endObject();
+        }
+
+        @Override
+        public Port read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String label = null;
+            Integer value = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Label": label = readString(in); break;
+                    case "Value": value = readInteger(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Port(label, value);
+        }
+    }
+
+    private static final class ConstraintAdapter extends TypeAdapter<Constraint> {
+
+        @Override
+        public void write(JsonWriter out, Constraint constraint) throws IOException {
+            if (constraint == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "LTarget", constraint.getLtarget());
+            writeString(out, "Operand", constraint.getOperand());
+            writeString(out, "RTarget", constraint.getRtarget());
+            out.endObject();
+        }
+
+        @Override
+        public Constraint read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String ltarget = null, operand = null, rtarget = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "LTarget": ltarget = readString(in); break;
+                    case "Operand": operand = readString(in); break;
+                    case "RTarget": rtarget = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Constraint(ltarget, operand, rtarget);
+        }
+    }
+
+    private static final class ArtifactAdapter extends TypeAdapter<Artifact> {
+
+        private final TypeAdapter<Map<String, String>> options;
+
+        ArtifactAdapter(Gson gson) {
+            this.options = gson.getAdapter(new TypeToken<Map<String, String>>() {});
+        }
+
+        @Override
+        public void write(JsonWriter out, Artifact artifact) throws IOException {
+            if (artifact == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "GetterSource", artifact.getGetterSource());
+            writeObject(out, "GetterOptions", artifact.getGetterOptions(), options);
+            writeString(out, "RelativeDest", artifact.getRelativeDest());
+            out.endObject();
+        }
+
+        @Override
+        public Artifact read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String source = null, dest = null;
+            Map<String, String> getterOptions = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "GetterSource": source = readString(in); break;
+                    case "GetterOptions": getterOptions = options.read(in); break;
+                    case "RelativeDest": dest = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Artifact(source, getterOptions, dest);
+        }
+    }
+
+    private static final class LogConfigAdapter extends TypeAdapter<LogConfig> {
+
+        @Override
+        public void write(JsonWriter out, LogConfig logConfig) throws IOException {
+            if (logConfig == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "MaxFiles", logConfig.getMaxFiles());
+            writeNumber(out, "MaxFileSizeMB", logConfig.getMaxFileSizeMB());
+            out.endObject();
+        }
+
+        @Override
+        public LogConfig read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer maxFiles = null, maxFileSize = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "MaxFiles": maxFiles = readInteger(in); break;
+                    case "MaxFileSizeMB": maxFileSize = readInteger(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new LogConfig(maxFiles, maxFileSize);
+        }
+    }
+
+    private static final class EphemeralDiskAdapter extends TypeAdapter<EphemeralDisk> {
+
+        @Override
+        public void write(JsonWriter out, EphemeralDisk disk) throws IOException {
+            if (disk == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "SizeMB", disk.getSizeMB());
+            writeBoolean(out, "Migrate", disk.getMigrate());
+            writeBoolean(out, "Sticky", disk.getSticky());
+            out.endObject();
+        }
+
+        @Override
+        public EphemeralDisk read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer size = null;
+            Boolean migrate = null, sticky = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "SizeMB": size = readInteger(in); break;
+                    case "Migrate": migrate = readBoolean(in); break;
+                    case "Sticky": sticky = readBoolean(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new EphemeralDisk(size, migrate, sticky);
+        }
+    }
+
+    private static final class RestartPolicyAdapter extends TypeAdapter<RestartPolicy> {
+
+        @Override
+        public void write(JsonWriter out, RestartPolicy policy) throws IOException {
+            if (policy == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "Interval", policy.getInterval());
+            writeString(out, "Mode", policy.getMode());
+            writeNumber(out, "Delay", policy.getDelay());
+            writeNumber(out, "Attempts", policy.getAttempts());
+            out.endObject();
+        }
+
+        @Override
+        public RestartPolicy read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer attempts = null;
+            Long interval = null, delay = null;
+            String mode = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Interval": interval = readLong(in); break;
+                    case "Mode": mode = readString(in); break;
+                    case "Delay": delay = readLong(in); break;
+                    case "Attempts": attempts = readInteger(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new RestartPolicy(attempts, interval, delay, mode);
+        }
+    }
+
+    private static final class ReschedulePolicyAdapter extends TypeAdapter<ReschedulePolicy> {
+
+        @Override
+        public void write(JsonWriter out, ReschedulePolicy policy) throws IOException {
+            if (policy == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "Attempts", policy.getAttempts());
+            writeNumber(out, "Interval", policy.getInterval());
+            writeNumber(out, "Delay", policy.getDelay());
+            writeString(out, "DelayFunction", policy.getDelayFunction());
+            writeBoolean(out, "Unlimited", policy.getUnlimited());
+            out.endObject();
+        }
+
+        @Override
+        public ReschedulePolicy read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer attempts = null;
+            Long interval = null, delay = null;
+            String delayFunction = null;
+            Boolean unlimited = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Attempts": attempts = readInteger(in); break;
+                    case "Interval": interval = readLong(in); break;
+                    case "Delay": delay = readLong(in); break;
+                    case "DelayFunction": delayFunction = readString(in); break;
+                    case "Unlimited": unlimited = readBoolean(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new ReschedulePolicy(attempts, interval, delay, delayFunction, unlimited);
+        }
+    }
+
+    private static final class UpdateAdapter extends TypeAdapter<Update> {
+
+        @Override
+        public void write(JsonWriter out, Update update) throws IOException {
+            if (update == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeNumber(out, "Stagger", update.getStagger());
+            writeNumber(out, "MaxParallel", update.getMaxParallel());
+            out.endObject();
+        }
+
+        @Override
+        public Update read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Integer stagger = null, maxParallel = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Stagger": stagger = readInteger(in); break;
+                    case "MaxParallel": maxParallel = readInteger(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Update(stagger, maxParallel);
+        }
+    }
+
+    private static final class TemplateAdapter extends TypeAdapter<Template> {
+
+        @Override
+        public void write(JsonWriter out, Template template) throws IOException {
+            if (template == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "EmbeddedTmpl", template.getEmbeddedTmpl());
+            writeString(out, "DestPath", template.getDestPath());
+            writeBoolean(out, "Envvars", template.getEnvvars());
+            out.endObject();
+        }
+
+        @Override
+        public Template read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String embedded = null, dest = null;
+            Boolean envvars = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "EmbeddedTmpl": embedded = readString(in); break;
+                    case "DestPath": dest = readString(in); break;
+                    case "Envvars": envvars = readBoolean(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new Template(embedded, dest, envvars);
+        }
+    }
+
+    private static final class ParameterizedJobConfigAdapter extends TypeAdapter<ParameterizedJobConfig> {
+
+        @Override
+        public void write(JsonWriter out, ParameterizedJobConfig config) throws IOException {
+            if (config == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "Payload", config.getPayload());
+            writeStrings(out, "MetaRequired", config.getMetaRequired());
+            writeStrings(out, "MetaOptional", config.getMetaOptional());
+            out.endObject();
+        }
+
+        @Override
+        public ParameterizedJobConfig read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String payload = null;
+            String[] required = null, optional = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Payload": payload = readString(in); break;
+                    case "MetaRequired": required = readStrings(in); break;
+                    case "MetaOptional": optional = readStrings(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new ParameterizedJobConfig(payload, required, optional);
+        }
+    }
+
+    private static final class DispatchRequestAdapter extends TypeAdapter<DispatchRequest> {
+
+        private final TypeAdapter<Map<String, String>> meta;
+
+        DispatchRequestAdapter(Gson gson) {
+            this.meta = gson.getAdapter(new TypeToken<Map<String, String>>() {});
+        }
+
+        @Override
+        public void write(JsonWriter out, DispatchRequest request) throws IOException {
+            if (request == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeObject(out, "Meta", request.getMeta(), meta);
+            out.endObject();
+        }
+
+        @Override
+        public DispatchRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Map<String, String> dispatchMeta = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Meta": dispatchMeta = meta.read(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new DispatchRequest(dispatchMeta);
+        }
+    }
+
+    private static final class DispatchResponseAdapter extends TypeAdapter<DispatchResponse> {
+
+        @Override
+        public void write(JsonWriter out, DispatchResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "DispatchedJobID", response.getDispatchedJobID());
+            writeString(out, "EvalID", response.getEvalID());
+            out.endObject();
+        }
+
+        @Override
+        public DispatchResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String dispatchedJobId = null, evalId = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "DispatchedJobID": dispatchedJobId = readString(in); break;
+                    case "EvalID": evalId = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new DispatchResponse(dispatchedJobId, evalId);
+        }
+    }
+
+    private static final class JobRegisterResponseAdapter extends TypeAdapter<JobRegisterResponse> {
+
+        @Override
+        public void write(JsonWriter out, JobRegisterResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "EvalID", response.getEvalID());
+            writeNumber(out, "EvalCreateIndex", response.getEvalCreateIndex());
+            writeNumber(out, "JobModifyIndex", response.getJobModifyIndex());
+            writeString(out, "Warnings", response.getWarnings());
+            out.endObject();
+        }
+
+        @Override
+        public JobRegisterResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String evalId = null, warnings = null;
+            Long evalCreateIndex = null, jobModifyIndex = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "EvalID": evalId = readString(in); break;
+                    case "EvalCreateIndex": evalCreateIndex = readLong(in); break;
+                    case "JobModifyIndex": jobModifyIndex = readLong(in); break;
+                    case "Warnings": warnings = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new JobRegisterResponse(evalId, evalCreateIndex, jobModifyIndex, warnings);
+        }
+    }
+
+    private static final class JobDeregisterResponseAdapter extends TypeAdapter<JobDeregisterResponse> {
+
+        @Override
+        public void write(JsonWriter out, JobDeregisterResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "EvalID", response.getEvalID());
+            writeNumber(out, "EvalCreateIndex", response.getEvalCreateIndex());
+            writeNumber(out, "JobModifyIndex", response.getJobModifyIndex());
+            out.endObject();
+        }
+
+        @Override
+        public JobDeregisterResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String evalId = null;
+            Long evalCreateIndex = null, jobModifyIndex = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "EvalID": evalId = readString(in); break;
+                    case "EvalCreateIndex": evalCreateIndex = readLong(in); break;
+                    case "JobModifyIndex": jobModifyIndex = readLong(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new JobDeregisterResponse(evalId, evalCreateIndex, jobModifyIndex);
+        }
+    }
+
+    private static final class JobInfoAdapter extends TypeAdapter<JobInfo> {
+
+        @Override
+        public void write(JsonWriter out, JobInfo info) throws IOException {
+            if (info == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "ID", info.getID());
+            writeString(out, "Name", info.getName());
+            writeString(out, "Type", info.getType());
+            writeString(out, "Status", info.getStatus());
+            writeNumber(out, "Priority", info.getPriority());
+            writeString(out, "ParentID", info.getParentID());
+            writeBoolean(out, "ParameterizedJob", info.getParameterizedJob());
+            out.endObject();
+        }
+
+        @Override
+        public JobInfo read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null, name = null, type = null, status = null, parentId = null;
+            Integer priority = null;
+            Boolean parameterized = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "ID": id = readString(in); break;
+                    case "Name": name = readString(in); break;
+                    case "Type": type = readString(in); break;
+                    case "Status": status = readString(in); break;
+                    case "Priority": priority = readInteger(in); break;
+                    case "ParentID": parentId = readString(in); break;
+                    case "ParameterizedJob": parameterized = readBoolean(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            JobInfo info = new JobInfo(id, name, type, status, priority);
+            info.setParentID(parentId);
+            info.setParameterizedJob(parameterized);
+            return info;
+        }
+    }
+
+    private static final class AllocationInfoAdapter extends TypeAdapter<AllocationInfo> {
+
+        @Override
+        public void write(JsonWriter out, AllocationInfo info) throws IOException {
+            if (info == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "ID", info.getID());
+            writeString(out, "Name", info.getName());
+            writeString(out, "JobID", info.getJobID());
+            writeString(out, "ClientStatus", info.getClientStatus());
+            writeString(out, "DesiredStatus", info.getDesiredStatus());
+            out.endObject();
+        }
+
+        @Override
+        public AllocationInfo read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null, name = null, jobId = null, clientStatus = null, desiredStatus = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "ID": id = readString(in); break;
+                    case "Name": name = readString(in); break;
+                    case "JobID": jobId = readString(in); break;
+                    case "ClientStatus": clientStatus = readString(in); break;
+                    case "DesiredStatus": desiredStatus = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return new AllocationInfo(id, name, jobId, clientStatus, desiredStatus);
+        }
+    }
+
+    // Writers: a null value still writes the name, JsonWriter drops both unless nulls are serialized
+
+    static void writeString(JsonWriter out, String name, String value) throws IOException {
+        out.name(name);
+        out.value(value);
+    }
+
+    static void writeNumber(JsonWriter out, String name, Number value) throws IOException {
+        out.name(name);
+        out.value(value);
+    }
+
+    static void writeBoolean(JsonWriter out, String name, Boolean value) throws IOException {
+        out.name(name);
+        out.value(value);
+    }
+
+    static void writeStrings(JsonWriter out, String name, String[] values) throws IOException {
+        out.name(name);
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    static <T> void writeObject(JsonWriter out, String name, T value, TypeAdapter<T> adapter) throws IOException {
+        out.name(name);
+        adapter.write(out, value);
+    }
+
+    static <T> void writeArray(JsonWriter out, String name, T[] values, TypeAdapter<T> adapter) throws IOException {
+        out.name(name);
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T value : values) {
+            adapter.write(out, value);
+        }
+        out.endArray();
+    }
+
+    static <T> void writeList(JsonWriter out, String name, List<T> values, TypeAdapter<T> adapter) throws IOException {
+        out.name(name);
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T value : values) {
+            adapter.write(out, value);
+        }
+        out.endArray();
+    }
+
+    // Readers
+
+    static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    static Integer readInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    static Long readLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    static Boolean readBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextBoolean();
+    }
+
+    static String[] readStrings(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readString(in));
+        }
+        in.endArray();
+        return values.toArray(new String[0]);
+    }
+
+    static <T> List<T> readList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(adapter.read(in));
+        }
+        in.endArray();
+        return values;
+    }
+}
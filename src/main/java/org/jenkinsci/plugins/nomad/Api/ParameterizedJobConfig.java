@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public class ParameterizedJobConfig {
+
+    private String Payload;
+    private String[] MetaRequired;
+    private String[] MetaOptional;
+
+    public ParameterizedJobConfig(String payload, String[] metaRequired, String[] metaOptional) {
+        Payload = payload;
+        MetaRequired = metaRequired;
+        MetaOptional = metaOptional;
+    }
+
+    public String getPayload() {
+        return Payload;
+    }
+
+    public void setPayload(String payload) {
+        Payload = payload;
+    }
+
+    public String[] getMetaRequired() {
+        return MetaRequired;
+    }
+
+    public void setMetaRequired(String[] metaRequired) {
+        MetaRequired = metaRequired;
+    }
+
+    public String[] getMetaOptional() {
+        return MetaOptional;
+    }
+
+    public void setMetaOptional(String[] metaOptional) {
+        MetaOptional = metaOptional;
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public class ReschedulePolicy {
+
+    private Integer Attempts;
+    private Long Interval;
+    private Long Delay;
+    private String DelayFunction;
+    private Boolean Unlimited;
+
+    public ReschedulePolicy(Integer attempts, Long interval, Long delay, String delayFunction, Boolean unlimited) {
+        Attempts = attempts;
+        Interval = interval;
+        Delay = delay;
+        DelayFunction = delayFunction;
+        Unlimited = unlimited;
+    }
+
+    public Integer getAttempts() {
+        return Attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        Attempts = attempts;
+    }
+
+    public Long getInterval() {
+        return Interval;
+    }
+
+    public void setInterval(Long interval) {
+        Interval = interval;
+    }
+
+    public Long getDelay() {
+        return Delay;
+    }
+
+    public void setDelay(Long delay) {
+        Delay = delay;
+    }
+
+    public String getDelayFunction() {
+        return DelayFunction;
+    }
+
+    public void setDelayFunction(String delayFunction) {
+        DelayFunction = delayFunction;
+    }
+
+    public Boolean getUnlimited() {
+        return Unlimited;
+    }
+
+    public void setUnlimited(Boolean unlimited) {
+        Unlimited = unlimited;
+    }
+}
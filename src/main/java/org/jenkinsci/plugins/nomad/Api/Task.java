@@ -10,6 +10,8 @@ public class Task {
     private Resource Resources;
     private LogConfig LogConfig;
     private Artifact[] Artifacts;
+    private Map<String, String> Env;
+    private Template[] Templates;
 
     public Task(
             String name,
@@ -85,4 +87,20 @@ public class Task {
         Artifacts = artifacts;
     }
 
+    public Map<String, String> getEnv() {
+        return Env;
+    }
+
+    public void setEnv(Map<String, String> env) {
+        Env = env;
+    }
+
+    public Template[] getTemplates() {
+        return Templates;
+    }
+
+    public void setTemplates(Template[] templates) {
+        Templates = templates;
+    }
+
 }
@@ -5,13 +5,15 @@ public class TaskGroup {
     private Integer Count;
     private Task[] Tasks;
     private RestartPolicy RestartPolicy;
+    private ReschedulePolicy ReschedulePolicy;
     private EphemeralDisk EphemeralDisk;
 
-    public TaskGroup(String name, Integer count, Task[] tasks, RestartPolicy restartPolicy, EphemeralDisk ephemeralDisk) {
+    public TaskGroup(String name, Integer count, Task[] tasks, RestartPolicy restartPolicy, ReschedulePolicy reschedulePolicy, EphemeralDisk ephemeralDisk) {
         Name = name;
         Count = count;
         Tasks = tasks;
         RestartPolicy = restartPolicy;
+        ReschedulePolicy = reschedulePolicy;
         EphemeralDisk = ephemeralDisk;
     }
 
@@ -47,6 +49,14 @@ public class TaskGroup {
         RestartPolicy = restartPolicy;
     }
 
+    public ReschedulePolicy getReschedulePolicy() {
+        return ReschedulePolicy;
+    }
+
+    public void setReschedulePolicy(ReschedulePolicy reschedulePolicy) {
+        ReschedulePolicy = reschedulePolicy;
+    }
+
     public EphemeralDisk getEphemeralDisk() {
         return EphemeralDisk;
     }
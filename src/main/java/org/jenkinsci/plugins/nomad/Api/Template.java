@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.nomad.Api;
+
+public class Template {
+
+    private String EmbeddedTmpl;
+    private String DestPath;
+    private Boolean Envvars;
+
+    public Template(String embeddedTmpl, String destPath, Boolean envvars) {
+        EmbeddedTmpl = embeddedTmpl;
+        DestPath = destPath;
+        Envvars = envvars;
+    }
+
+    public String getEmbeddedTmpl() {
+        return EmbeddedTmpl;
+    }
+
+    public void setEmbeddedTmpl(String embeddedTmpl) {
+        EmbeddedTmpl = embeddedTmpl;
+    }
+
+    public String getDestPath() {
+        return DestPath;
+    }
+
+    public void setDestPath(String destPath) {
+        DestPath = destPath;
+    }
+
+    public Boolean getEnvvars() {
+        return Envvars;
+    }
+
+    public void setEnvvars(Boolean envvars) {
+        Envvars = envvars;
+    }
+}
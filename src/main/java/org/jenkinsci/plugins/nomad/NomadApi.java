@@ -1,14 +1,27 @@
 package org.jenkinsci.plugins.nomad;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 import hudson.Util;
+import jenkins.util.Timer;
 import org.jenkinsci.plugins.nomad.Api.Job;
 import okhttp3.*;
+import okio.BufferedSink;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jenkinsci.plugins.nomad.Api.*;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,101 +29,571 @@ public final class NomadApi {
 
     private static final Logger LOGGER = Logger.getLogger(NomadApi.class.getName());
 
-    private static final OkHttpClient client = new OkHttpClient.Builder().build();
-
     private final String nomadApi;
 
+    // Built on first use, so a cloud builds it once its configuration is bound
+    private final transient Supplier<NomadHttpTransport> transportFactory;
+    private transient volatile NomadHttpTransport transport;
+
+    private final transient NomadCircuitBreaker breaker;
+
+    static final int MAX_RETRIES = Integer.getInteger(NomadApi.class.getName() + ".maxRetries", 3);
+    private static final long RETRY_BASE_DELAY_MILLIS = 250;
+    private static final long RETRY_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final boolean IDEMPOTENT = true;
+    private static final boolean NOT_IDEMPOTENT = false;
+
+    private final transient Map<NomadSlaveTemplate, NomadJobSkeleton> jobSkeletons = new ConcurrentHashMap<>();
+
+    // Templates whose parameterized job is registered, mapped to whether it was registered with a secret
+    private final transient Map<NomadSlaveTemplate, Boolean> dispatchJobs = new ConcurrentHashMap<>();
+
     public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
+    static final String BATCH_SECRET_ENV = "JENKINS_AGENT_SECRET";
+
+    static final String META_AGENT_NAME = "jenkins_agent_name";
+    static final String META_AGENT_SECRET = "jenkins_agent_secret";
+
+    // Where the controller leaves the name and secret of the next agent a recycled allocation runs
+    static final String RECYCLE_FILE = "/local/jenkins-recycle";
+
+    private static final String LIVE_ALLOCATIONS_FILTER = "ClientStatus == \"pending\" or ClientStatus == \"running\"";
+
+    // Picks the secret of the current allocation out of the per-index secrets passed in the task environment
+    private static final String BATCH_SECRET_TEMPLATE =
+            BATCH_SECRET_ENV + "={{ env (printf \"" + BATCH_SECRET_ENV + "_%s\" (env \"NOMAD_ALLOC_INDEX\")) }}\n";
+
     NomadApi(String nomadApi) {
+        this(nomadApi, new NomadHttpTransport());
+    }
+
+    NomadApi(String nomadApi, NomadHttpTransport transport) {
+        this(nomadApi, () -> transport);
+    }
+
+    NomadApi(String nomadApi, Supplier<NomadHttpTransport> transportFactory) {
         this.nomadApi = nomadApi;
+        this.transportFactory = transportFactory;
+        this.breaker = new NomadCircuitBreaker(nomadApi);
     }
 
-    void startSlave(NomadCloud cloud, String slaveName, String nomadToken, String jnlpSecret, NomadSlaveTemplate template) {
+    NomadCircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
 
-        String slaveJob = buildSlaveJob(
-            slaveName,
-            jnlpSecret,
-            cloud,
-            template
-        );
+    NomadHttpTransport getTransport() {
+        return transport();
+    }
 
-        LOGGER.log(Level.FINE, slaveJob);
+    private NomadHttpTransport transport() {
+        NomadHttpTransport built = transport;
+        if (built == null) {
+            synchronized (this) {
+                built = transport;
+                if (built == null)
+                    transport = built = transportFactory.get();
+            }
+        }
+        return built;
+    }
 
-        try {
-            RequestBody body = RequestBody.create(JSON, slaveJob);
-            Request.Builder builder = new Request.Builder()
-                    .url(this.nomadApi + "/v1/job/" + slaveName + "?region=" + template.getRegion());
+    CompletableFuture<JobRegisterResponse> startSlave(NomadCloud cloud, String slaveName, String jnlpSecret, NomadSlaveTemplate template) {
 
-            if (StringUtils.isNotEmpty(nomadToken))
-                builder = builder.header("X-Nomad-Token", nomadToken);
+        NomadJobSkeleton skeleton = jobSkeleton(cloud, template, !jnlpSecret.isEmpty());
 
-            Request request = builder.put(body)
-                .build();
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.log(Level.FINE, skeleton.render(slaveName, jnlpSecret));
 
-            Response execute = client.newCall(request).execute();
-            if (execute.code() != 200){
-                LOGGER.log(Level.SEVERE, execute.body().string());
-            } else {
-                execute.body().close();
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                skeleton.writeTo(sink, slaveName, jnlpSecret);
+            }
+        };
+
+        return registerJob(slaveName, template.getRegion(), body);
+    }
+
+    /**
+     * Registers a single job for a whole batch of agents. Its task group runs one allocation per secret, and
+     * every allocation derives its agent name ({@code <jobId>-<index>}) and secret from {@code NOMAD_ALLOC_INDEX}.
+     */
+    CompletableFuture<JobRegisterResponse> startBatch(NomadCloud cloud, String jobId, List<String> jnlpSecrets, NomadSlaveTemplate template) {
+        boolean secured = !jnlpSecrets.get(0).isEmpty();
+
+        Job job = buildJob(
+                jobId + "-${NOMAD_ALLOC_INDEX}",
+                secured ? "${" + BATCH_SECRET_ENV + "}" : "",
+                cloud,
+                template,
+                true
+        );
+        job.setID(jobId);
+        job.setName(jobId);
+
+        TaskGroup taskGroup = job.getTaskGroups()[0];
+        taskGroup.setCount(jnlpSecrets.size());
+
+        if (secured) {
+            Map<String, String> env = new HashMap<>();
+            for (int i = 0; i < jnlpSecrets.size(); i++) {
+                env.put(BATCH_SECRET_ENV + "_" + i, jnlpSecrets.get(i));
+            }
+
+            Task task = taskGroup.getTasks()[0];
+            task.setEnv(env);
+            task.setTemplates(new Template[]{
+                    new Template(BATCH_SECRET_TEMPLATE, "secrets/agent.env", true)
+            });
         }
+
+        return registerJob(jobId, template.getRegion(), jsonBody(job));
     }
 
-    void stopSlave(String slaveName, String nomadToken) {
+    /**
+     * Starts an agent by dispatching the template's parameterized job, registering that job first if this
+     * has not happened since the last configuration change.
+     */
+    CompletableFuture<DispatchResponse> dispatchSlave(NomadCloud cloud, String slaveName, String jnlpSecret, NomadSlaveTemplate template) {
+        boolean secured = !jnlpSecret.isEmpty();
 
-        Request.Builder builder = new Request.Builder()
-                .url(this.nomadApi + "/v1/job/" + slaveName);
+        Map<String, String> meta = new HashMap<>();
+        meta.put(META_AGENT_NAME, slaveName);
+        if (secured)
+            meta.put(META_AGENT_SECRET, jnlpSecret);
 
-        if (StringUtils.isNotEmpty(nomadToken))
-            builder = builder.addHeader("X-Nomad-Token", nomadToken);
+        return dispatch(cloud, new DispatchRequest(meta), secured, template, false);
+    }
 
-        Request request = builder.delete()
-                .build();
+    private CompletableFuture<DispatchResponse> dispatch(NomadCloud cloud, DispatchRequest dispatchRequest, boolean secured, NomadSlaveTemplate template, boolean retried) {
+        String parentId = dispatchParentId(template);
 
+        CompletableFuture<?> registered;
+        Boolean registeredSecured = dispatchJobs.get(template);
+        if (registeredSecured == null || registeredSecured != secured) {
+            registered = registerDispatchJob(cloud, parentId, secured, template)
+                    .thenRun(() -> dispatchJobs.put(template, secured));
+        } else {
+            registered = CompletableFuture.completedFuture(null);
+        }
+
+        return registered
+                .thenCompose(v -> call(
+                        "Dispatch of " + parentId,
+                        transport().client(),
+                        NOT_IDEMPOTENT,
+                        request("/v1/job/" + parentId + "/dispatch?region=" + template.getRegion())
+                                .post(jsonBody(dispatchRequest))
+                                .build(),
+                        body -> NomadJson.GSON.fromJson(body.charStream(), DispatchResponse.class)))
+                .handle((response, e) -> {
+                    // A second attempt re-registers the parent in case it was deregistered or garbage collected
+                    Throwable cause = unwrap(e);
+                    if (!retried && cause instanceof NomadApiException && ((NomadApiException) cause).isNotFound()) {
+                        dispatchJobs.remove(template);
+                        return dispatch(cloud, dispatchRequest, secured, template, true);
+                    }
+                    return e == null ? CompletableFuture.completedFuture(response) : NomadApi.<DispatchResponse>failed(cause);
+                })
+                .thenCompose(f -> f);
+    }
+
+    private CompletableFuture<JobRegisterResponse> registerDispatchJob(NomadCloud cloud, String parentId, boolean secured, NomadSlaveTemplate template) {
+        Job job = buildJob(
+                "${NOMAD_META_" + META_AGENT_NAME + "}",
+                secured ? "${NOMAD_META_" + META_AGENT_SECRET + "}" : "",
+                cloud,
+                template
+        );
+        job.setID(parentId);
+        job.setName(parentId);
+        job.setParameterizedJob(new ParameterizedJobConfig(
+                "forbidden",
+                secured ? new String[]{META_AGENT_NAME, META_AGENT_SECRET} : new String[]{META_AGENT_NAME},
+                null
+        ));
+
+        LOGGER.log(Level.INFO, "Registering parameterized job " + parentId);
+        return registerJob(parentId, template.getRegion(), jsonBody(job));
+    }
+
+    /**
+     * The ID of the parameterized job that agents of the given template are dispatched from.
+     */
+    static String dispatchParentId(NomadSlaveTemplate template) {
+        return template.getPrefix() + "-dispatch";
+    }
+
+    /**
+     * The agent name a dispatched child job was started for, read from its dispatch meta.
+     */
+    String getDispatchedSlaveName(String jobId) {
+        Job job = getJob(jobId);
+        if (job == null || job.getMeta() == null)
+            return null;
+        return job.getMeta().get(META_AGENT_NAME);
+    }
+
+    Job getJob(String jobId) {
         try {
-            ResponseBody body = client.newCall(request).execute().body();
-            String string = body.string();
-            body.close();
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            return getJobAsync(jobId).join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (!(cause instanceof NomadApiException && ((NomadApiException) cause).isNotFound()))
+                LOGGER.log(Level.SEVERE, "Failed to retrieve job " + jobId, cause);
+            return null;
         }
+    }
 
+    CompletableFuture<Job> getJobAsync(String jobId) {
+        return call(
+                "Reading job " + jobId,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/job/" + jobId).get().build(),
+                body -> NomadJson.GSON.fromJson(body.charStream(), Job.class));
     }
 
-    JobInfo[] getRunningWorkers(String prefix, String nomadToken) {
+    private CompletableFuture<JobRegisterResponse> registerJob(String jobId, String region, RequestBody body) {
+        return call(
+                "Registration of job " + jobId,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/job/" + jobId + "?region=" + region).put(body).build(),
+                response -> NomadJson.GSON.fromJson(response.charStream(), JobRegisterResponse.class));
+    }
 
-        JobInfo[] nomadJobs = null;
+    /**
+     * Deregisters the job. A purged job is removed from Nomad's state right away instead of lingering as dead
+     * until the next garbage collection.
+     */
+    CompletableFuture<JobDeregisterResponse> stopSlave(String slaveName, boolean purge) {
+        return call(
+                "Deregistration of job " + slaveName,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/job/" + slaveName + (purge ? "?purge=true" : "")).delete().build(),
+                body -> NomadJson.GSON.fromJson(body.charStream(), JobDeregisterResponse.class));
+    }
+
+    CompletableFuture<AllocationInfo[]> getAllocations(String jobId) {
+        return call(
+                "Listing allocations of job " + jobId,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/job/" + jobId + "/allocations").get().build(),
+                body -> NomadJson.GSON.fromJson(body.charStream(), AllocationInfo[].class));
+    }
+
+    /**
+     * Lists the jobs with the given prefix through a blocking query, which returns once the job list changes
+     * past the given index or the wait time has passed.
+     */
+    Indexed<JobInfo[]> watchJobs(String prefix, long index) throws IOException {
 
         Request.Builder builder = new Request.Builder()
-                .url(this.nomadApi + "/v1/jobs?prefix=" + prefix)
+                .url(this.nomadApi + "/v1/jobs?prefix=" + prefix + "&index=" + index + "&wait=" + NomadHttpTransport.WATCH_WAIT_MILLIS + "ms")
                 .get();
 
-        if (StringUtils.isNotEmpty(nomadToken))
-            builder = builder.addHeader("X-Nomad-Token", nomadToken);
-
         Request request = builder.build();
 
+        try (Response response = execute(transport().watchClient(), request)) {
+            if (response.code() != 200)
+                throw new IOException("Nomad answered " + response.code() + ": " + response.body().string());
+
+            long newIndex = NumberUtils.toLong(response.header("X-Nomad-Index"), 0);
+            JobInfo[] jobs = NomadJson.GSON.fromJson(response.body().charStream(), JobInfo[].class);
+            return new Indexed<>(jobs, newIndex);
+        } catch (JsonParseException e) {
+            throw new IOException("Failed to parse the job list", e);
+        }
+    }
+
+    /**
+     * Opens the event stream for the job, evaluation and allocation topics, starting after the given index.
+     * The caller reads the newline delimited frames from the response body and closes it.
+     */
+    Response openEventStream(long index) throws IOException {
+
+        Request.Builder builder = new Request.Builder()
+                .url(this.nomadApi + "/v1/event/stream?topic=Job:*&topic=Evaluation:*&topic=Allocation:*&index=" + index)
+                .get();
+
+        Response response = execute(transport().streamClient(), builder.build());
+        if (response.code() != 200) {
+            String message = response.body().string();
+            response.close();
+            throw new IOException("Nomad answered " + response.code() + ": " + message);
+        }
+        return response;
+    }
+
+    /**
+     * A response of a blocking query together with the Nomad index it reflects.
+     */
+    static final class Indexed<T> {
+        final T value;
+        final long index;
+
+        Indexed(T value, long index) {
+            this.value = value;
+            this.index = index;
+        }
+    }
+
+    JobInfo[] getRunningWorkers(String prefix) {
         try {
-            ResponseBody body = client.newCall(request).execute().body();
+            return getRunningWorkersAsync(prefix).join();
+        } catch (CompletionException e) {
+            LOGGER.log(Level.SEVERE, "Failed to retrieve running jobs", unwrap(e));
+            return null;
+        }
+    }
 
-            if (body != null) {
-                Gson gson = new Gson();
+    CompletableFuture<JobInfo[]> getRunningWorkersAsync(String prefix) {
+        return call(
+                "Listing jobs with prefix " + prefix,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/jobs?prefix=" + prefix).get().build(),
+                body -> NomadJson.GSON.fromJson(body.charStream(), JobInfo[].class));
+    }
 
-                nomadJobs = gson.fromJson(body.string(), JobInfo[].class);
+    /**
+     * Reads an evaluation. With an index greater than 0 this is a blocking query, which returns once the
+     * evaluation changed past the index or the wait time has passed.
+     */
+    CompletableFuture<JsonObject> getEvaluation(String evalId, long index, long waitMillis) {
+        return call(
+                "Reading evaluation " + evalId,
+                index > 0 ? transport().watchClient() : transport().client(),
+                IDEMPOTENT,
+                request("/v1/evaluation/" + evalId + (index > 0 ? "?index=" + index + "&wait=" + waitMillis + "ms" : "")).get().build(),
+                body -> new JsonParser().parse(body.charStream()).getAsJsonObject());
+    }
 
-                body.close();
+    /**
+     * Lists the client nodes of the region, as the stubs Nomad returns, along with their resources.
+     */
+    CompletableFuture<JsonArray> getNodes(String region) {
+        return call(
+                "Listing nodes",
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/nodes?resources=true" + regionQuery("&", region)).get().build(),
+                body -> new JsonParser().parse(body.charStream()).getAsJsonArray());
+    }
+
+    /**
+     * Reads a client node including its attributes, meta data and resources.
+     */
+    CompletableFuture<JsonObject> getNode(String nodeId, String region) {
+        return call(
+                "Reading node " + nodeId,
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/node/" + nodeId + regionQuery("?", region)).get().build(),
+                body -> new JsonParser().parse(body.charStream()).getAsJsonObject());
+    }
+
+    /**
+     * Lists the pending and running allocations of the region with the resources allocated to them. Nomad
+     * versions without filter expressions list the terminal allocations as well.
+     */
+    CompletableFuture<JsonArray> getAllocationResources(String region) {
+        return call(
+                "Listing allocations",
+                transport().client(),
+                IDEMPOTENT,
+                request("/v1/allocations?resources=true&task_states=false&filter=" + Util.rawEncode(LIVE_ALLOCATIONS_FILTER)
+                        + regionQuery("&", region)).get().build(),
+                body -> new JsonParser().parse(body.charStream()).getAsJsonArray());
+    }
+
+    private static String regionQuery(String separator, String region) {
+        return StringUtils.isEmpty(region) ? "" : separator + "region=" + region;
+    }
+
+    // The ACL token is added by the transport
+    private Request.Builder request(String path) {
+        return new Request.Builder()
+                .url(this.nomadApi + path);
+    }
+
+    /**
+     * Sends the request without blocking the calling thread. The future fails with a {@link NomadApiException}
+     * if Nomad answers with an error status, and with the underlying {@link IOException} if it cannot be reached.
+     *
+     * Idempotent requests are retried after network failures and server errors, with exponentially growing,
+     * fully jittered delays. No request is sent while the circuit breaker is open.
+     */
+    private <T> CompletableFuture<T> call(String operation, OkHttpClient client, boolean idempotent, Request request, ResponseReader<T> reader) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(operation, client, idempotent, request, reader, result, 0);
+        return result;
+    }
+
+    private <T> void attempt(String operation, OkHttpClient client, boolean idempotent, Request request, ResponseReader<T> reader,
+                             CompletableFuture<T> result, int attempt) {
+        if (!breaker.allowRequest()) {
+            result.completeExceptionally(new NomadCircuitBreaker.OpenException(operation, nomadApi));
+            return;
+        }
+
+        try {
+            enqueue(operation, client, idempotent, request, reader, result, attempt);
+        } catch (RuntimeException e) {
+            // E.g. the dispatcher of a closed transport refused the call
+            breaker.recordFailure();
+            result.completeExceptionally(e);
+        }
+    }
+
+    private <T> void enqueue(String operation, OkHttpClient client, boolean idempotent, Request request, ResponseReader<T> reader,
+                             CompletableFuture<T> result, int attempt) {
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                breaker.recordFailure();
+                retryOrFail(e);
             }
-        } catch (IOException e){
-            LOGGER.log(Level.SEVERE, "Failed to retrieve running jobs", e);
+
+            // Every path records an outcome, as a half-open circuit breaker lets no other request through until then
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean recorded = false;
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful()) {
+                        NomadApiException e = new NomadApiException(operation, response.code(), body.string());
+                        recorded = true;
+                        if (isServerFailure(e)) {
+                            breaker.recordFailure();
+                            retryOrFail(e);
+                        } else {
+                            breaker.recordSuccess();
+                            result.completeExceptionally(e);
+                        }
+                        return;
+                    }
+                    T value = reader.read(body);
+                    recorded = true;
+                    breaker.recordSuccess();
+                    result.complete(value);
+                } catch (IOException e) {
+                    // The connection broke while the response was read
+                    if (!recorded) {
+                        recorded = true;
+                        breaker.recordFailure();
+                    }
+                    result.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    // Nomad answered, only its answer could not be read, e.g. malformed JSON
+                    result.completeExceptionally(e);
+                } finally {
+                    if (!recorded)
+                        breaker.recordSuccess();
+                }
+            }
+
+            private void retryOrFail(IOException e) {
+                if (!idempotent || attempt >= MAX_RETRIES || breaker.isOpen()) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+
+                long delay = ThreadLocalRandom.current().nextLong(Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << attempt) + 1);
+                LOGGER.log(Level.FINE, operation + " failed, retrying in " + delay + " ms", e);
+                Timer.get().schedule(
+                        () -> attempt(operation, client, idempotent, request, reader, result, attempt + 1),
+                        delay, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    // Long running requests on their own threads are not held back by the circuit breaker, but tell it how Nomad is doing
+    private Response execute(OkHttpClient client, Request request) throws IOException {
+        try {
+            Response response = client.newCall(request).execute();
+            if (response.code() >= 500 || response.code() == 429) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            breaker.recordFailure();
+            throw e;
         }
+    }
+
+    // Unavailable, overloaded or without a leader, as opposed to a request Nomad rejected
+    private static boolean isServerFailure(NomadApiException e) {
+        return e.getStatusCode() >= 500 || e.getStatusCode() == 429;
+    }
+
+    private interface ResponseReader<T> {
+        T read(ResponseBody body) throws IOException;
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * The failure behind the completion wrapper of a dependent stage.
+     */
+    static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+
+    /**
+     * Logs the failure of an operation whose outcome nobody waits for. A job or allocation that is gone already
+     * is not worth more than a fine message.
+     */
+    static void logFailure(CompletableFuture<?> future, String operation) {
+        future.whenComplete((result, e) -> {
+            if (e == null)
+                return;
+
+            Throwable cause = unwrap(e);
+            Level level = cause instanceof NomadApiException && ((NomadApiException) cause).isNotFound() ? Level.FINE : Level.SEVERE;
+            LOGGER.log(level, "Failed to " + operation, cause);
+        });
+    }
+
+    /**
+     * A request body that streams the given API object straight into the request sink.
+     */
+    static RequestBody jsonBody(final Object value) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
 
-        return nomadJobs;
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+                JsonWriter jsonWriter = NomadJson.GSON.newJsonWriter(writer);
+                NomadJson.GSON.toJson(value, value.getClass(), jsonWriter);
+                jsonWriter.flush();
+            }
+        };
     }
 
-    private Map<String,Object> buildDriverConfig(String name, String secret, NomadCloud cloud, NomadSlaveTemplate template) {
+    // An agent that exits on disconnect completes its allocation once its node is removed, instead of trying to reconnect
+    private Map<String,Object> buildDriverConfig(String name, String secret, NomadCloud cloud, NomadSlaveTemplate template, boolean exitOnDisconnect) {
         Map<String,Object> driverConfig = new HashMap<>();
 
         if (template.getUsername() != null && !template.getUsername().isEmpty()) {
@@ -137,6 +620,9 @@ public final class NomadApi {
                 args.add(secret);
             }
 
+            if (exitOnDisconnect)
+                args.add("-noReconnect");
+
             driverConfig.put("jar_path", template.getAgentDir() + "slave.jar");
             driverConfig.put("args", args);
         } else if (template.isRawExecDriver()) {
@@ -152,11 +638,18 @@ public final class NomadApi {
                 args.add(secret);
             }
 
+            if (exitOnDisconnect)
+                args.add("-noReconnect");
+
             driverConfig.put("command", "java");
             driverConfig.put("args", args);
         } else if (template.isDockerDriver()) {
             args.add("-headless");
 
+            // Recycling agents never reconnect
+            if (exitOnDisconnect && !template.isRecycling())
+                args.add("-noreconnect");
+
             if (!cloud.getJenkinsUrl().isEmpty()) {
                 args.add("-url");
                 args.add(cloud.getJenkinsUrl());
@@ -172,6 +665,9 @@ public final class NomadApi {
                 args.add(Util.ensureEndsWith(template.getRemoteFs(), "/"));
             }
 
+            // Options of the agent without its secret and name, for agents run one after the other
+            List<String> options = new ArrayList<>(args);
+
             // java -cp /local/slave.jar [options...] <secret key> <agent name>
             if (!secret.isEmpty()) {
                 args.add(secret);
@@ -179,8 +675,25 @@ public final class NomadApi {
             args.add(name);
 
             String prefixCmd = template.getPrefixCmd();
+            if (template.isRecycling()) {
+                // Runs one agent after the other until the controller leaves no name and secret for a next one.
+                // The first name and secret are passed as arguments of the script rather than spliced into it.
+                driverConfig.put("command", "/bin/bash");
+                String script = (prefixCmd.isEmpty() ? "" : prefixCmd + "; ")
+                        + "name=\"$1\"; secret=\"$2\"; while true; do "
+                        + "java -cp /local/slave.jar hudson.remoting.jnlp.Main -noreconnect " + StringUtils.join(options, " ")
+                        + (secret.isEmpty() ? "" : " \"$secret\"") + " \"$name\"; status=$?; [ -s " + RECYCLE_FILE + " ] || exit $status; "
+                        + "read -r name secret < " + RECYCLE_FILE + "; rm -f " + RECYCLE_FILE + "; done";
+                args.clear();
+                args.add("-c");
+                args.add(script);
+                args.add("jenkins-agent");
+                args.add(name);
+                if (!secret.isEmpty())
+                    args.add(secret);
+            }
             // If an addtional command is defined - prepend it to jenkins slave invocation
-            if (!prefixCmd.isEmpty())
+            else if (!prefixCmd.isEmpty())
             {
                 driverConfig.put("command", "/bin/bash");
                 String argString =
@@ -232,6 +745,56 @@ public final class NomadApi {
             String secret,
             NomadCloud cloud,
             NomadSlaveTemplate template
+    ) {
+        return jobSkeleton(cloud, template, !secret.isEmpty()).render(name, secret);
+    }
+
+    private NomadJobSkeleton jobSkeleton(NomadCloud cloud, NomadSlaveTemplate template, boolean secured) {
+        NomadJobSkeleton skeleton = jobSkeletons.get(template);
+        if (skeleton == null || skeleton.isSecured() != secured) {
+            skeleton = new NomadJobSkeleton(
+                    NomadJson.GSON.toJson(buildJob(
+                            NomadJobSkeleton.NAME_MARKER,
+                            secured ? NomadJobSkeleton.SECRET_MARKER : "",
+                            cloud,
+                            template
+                    )),
+                    secured
+            );
+            jobSkeletons.put(template, skeleton);
+        }
+
+        return skeleton;
+    }
+
+    /**
+     * Drops the compiled job skeletons and forgets the registered parameterized jobs, e.g. after the cloud
+     * settings they were built from changed.
+     */
+    void invalidateJobSkeletons() {
+        jobSkeletons.clear();
+        dispatchJobs.clear();
+    }
+
+    Job buildJob(
+            String name,
+            String secret,
+            NomadCloud cloud,
+            NomadSlaveTemplate template
+    ) {
+        return buildJob(name, secret, cloud, template, false);
+    }
+
+    /**
+     * Builds the job of an agent. The agents of a batch job exit when they are disconnected, so the allocation of a
+     * terminated agent completes on its own, while the job keeps running the other agents of the batch.
+     */
+    Job buildJob(
+            String name,
+            String secret,
+            NomadCloud cloud,
+            NomadSlaveTemplate template,
+            boolean batch
     ) {
         PortGroup portGroup = new PortGroup(template.getPorts());
         Network network = new Network(1, portGroup.getPorts());
@@ -243,7 +806,7 @@ public final class NomadApi {
                 "jenkins-slave",
                 template.getDriver(),
                 template.getSwitchUser(),
-                buildDriverConfig(name, secret, cloud, template),
+                buildDriverConfig(name, secret, cloud, template, batch),
                 new Resource(
                     template.getCpu(),
                     template.getMemory(),
@@ -259,7 +822,8 @@ public final class NomadApi {
                 "jenkins-slave-taskgroup",
                 1,
                 new Task[]{task},
-                new RestartPolicy(0, 10000000000L, 1000000000L, "fail"),
+                restartPolicy(template),
+                reschedulePolicy(template),
                 new EphemeralDisk(template.getDisk(), false, false)
         );
 
@@ -277,7 +841,21 @@ public final class NomadApi {
                 new TaskGroup[]{taskGroup}
         );
 
-        Gson gson = new Gson();
-        return gson.toJson(job);
+        return job;
+    }
+
+    // Restarts the failed task in place within an interval long enough for all attempts, then fails the allocation
+    static RestartPolicy restartPolicy(NomadSlaveTemplate template) {
+        int attempts = template.isPreferOtherNode() ? 0 : template.getRestartAttempts();
+        long delay = TimeUnit.SECONDS.toNanos(template.getRestartDelaySeconds());
+        long interval = Math.max(TimeUnit.SECONDS.toNanos(10), (attempts + 1) * delay);
+        return new RestartPolicy(attempts, interval, delay, "fail");
+    }
+
+    // No attempts disables rescheduling, which Nomad otherwise does once for batch jobs by default
+    static ReschedulePolicy reschedulePolicy(NomadSlaveTemplate template) {
+        long delay = TimeUnit.SECONDS.toNanos(template.getRescheduleDelaySeconds());
+        long interval = Math.max(TimeUnit.HOURS.toNanos(1), (template.getRescheduleAttempts() + 1) * delay);
+        return new ReschedulePolicy(template.getRescheduleAttempts(), interval, delay, "constant", false);
     }
 }
@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.nomad;
+
+import java.io.IOException;
+
+/**
+ * Nomad answered a request with an error status.
+ */
+public final class NomadApiException extends IOException {
+
+    private final int statusCode;
+    private final String body;
+
+    NomadApiException(String operation, int statusCode, String body) {
+        super(operation + " failed, Nomad answered " + statusCode + ": " + body);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Whether the addressed job, allocation or evaluation does not exist.
+     */
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+}
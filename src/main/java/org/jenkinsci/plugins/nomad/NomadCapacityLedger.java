@@ -0,0 +1,415 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the executors of a cloud per template: the ones being launched, either still pending or
+ * scheduled and connecting, and the ones of online agents, either busy or idle. Templates are told apart by
+ * their prefix, so launches and agents keep counting toward their template after the configuration is saved.
+ *
+ * Launches are reserved before anything is sent to Nomad. A reservation is refused when it would take the
+ * template or the cloud past its maximum number of instances or executors, so concurrent provisioning rounds
+ * cannot overshoot the caps between them. The instances and executors the caps apply to are counted as launches
+ * are reserved and released and as agents are added and removed, so a reservation does not walk all nodes. They
+ * are recounted from the launches and nodes now and then, to correct any drift.
+ *
+ * Saving the configuration replaces the cloud, but not its ledger, which is handed over to the new cloud along
+ * with the launches still in flight.
+ */
+final class NomadCapacityLedger {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadCapacityLedger.class.getName());
+
+    static final long RECOUNT_INTERVAL_MILLIS = Long.getLong(NomadCapacityLedger.class.getName() + ".recountIntervalMillis",
+            TimeUnit.MINUTES.toMillis(5));
+
+    enum State {PENDING, CONNECTING}
+
+    // Why an agent is launched: for queued items, for the warm pool or ahead of the forecast demand
+    enum Purpose {DEMAND, WARM, AHEAD}
+
+    // Guarded by this, as are the launches
+    private NomadCloud cloud;
+
+    private final Set<Launch> launches = new HashSet<>();
+
+    // What the launches and the agents not launching hold, per template prefix and in total, guarded by this
+    private final Map<String, Usage> usage = new HashMap<>();
+    private final Usage total = new Usage(null);
+
+    // Agents counted through their node rather than their launch, by name, guarded by this
+    private final Map<String, Usage> agents = new HashMap<>();
+
+    private long recounted = Long.MIN_VALUE;
+
+    NomadCapacityLedger(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Hands the ledger over to the cloud replacing its own, whose caps apply from then on to the launches in
+     * flight and the agents alike.
+     */
+    synchronized void handOver(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Reserves the capacity of one agent of the template, or returns null if that would exceed a cap.
+     */
+    synchronized Launch reserve(NomadSlaveTemplate template, Purpose purpose) {
+        recountIfDue();
+
+        int executors = template.getNumExecutors();
+        if (!fits(cloud.getMaxInstances(), total.instances, 1) || !fits(cloud.getMaxExecutors(), total.executors, executors))
+            return null;
+
+        Usage own = usage(template.getPrefix());
+        if (!fits(template.getMaxInstances(), own.instances, 1) || !fits(template.getMaxExecutors(), own.executors, executors))
+            return null;
+
+        Launch launch = new Launch(template, purpose);
+        add(launch);
+        return launch;
+    }
+
+    /**
+     * Executors that may still be launched for the template before its caps or the cloud's are reached,
+     * {@link Integer#MAX_VALUE} if none has a cap.
+     */
+    synchronized int getRemainingExecutors(NomadSlaveTemplate template) {
+        recountIfDue();
+
+        Usage own = usage(template.getPrefix());
+        int remaining = Integer.MAX_VALUE;
+        remaining = remaining(remaining, cloud.getMaxExecutors(), total.executors, 1);
+        remaining = remaining(remaining, cloud.getMaxInstances(), total.instances, template.getNumExecutors());
+        remaining = remaining(remaining, template.getMaxExecutors(), own.executors, 1);
+        remaining = remaining(remaining, template.getMaxInstances(), own.instances, template.getNumExecutors());
+        return remaining;
+    }
+
+    private static int remaining(int remaining, int cap, int used, int executorsPerUnit) {
+        if (cap <= 0)
+            return remaining;
+        return Math.min(remaining, Math.max(0, cap - used) * executorsPerUnit);
+    }
+
+    /**
+     * Tracks the connection of an agent to a node added for an allocation that runs already, e.g. of a job that
+     * outlived a restart of Jenkins or of a recycled allocation, so no cap applies. The node is counted through
+     * the launch until it completes.
+     */
+    synchronized Launch adopt(NomadSlaveTemplate template, String slaveName) {
+        Usage agent = agents.remove(slaveName);
+        if (agent != null)
+            count(agent.prefix, -agent.instances, -agent.executors);
+
+        Launch launch = new Launch(template, Purpose.DEMAND);
+        launch.state = State.CONNECTING;
+        launch.slaveName = slaveName;
+        add(launch);
+        return launch;
+    }
+
+    // A cap of 0 stands for no limit
+    private static boolean fits(int cap, int used, int added) {
+        return cap <= 0 || used + added <= cap;
+    }
+
+    synchronized void connecting(Launch launch) {
+        launch.state = State.CONNECTING;
+    }
+
+    /**
+     * Gives back a launch once its agent is online or the launch failed. From then on an online agent is counted
+     * through its node.
+     */
+    synchronized void release(Launch launch) {
+        if (!launches.remove(launch))
+            return;
+        count(launch.template.getPrefix(), -1, -launch.template.getNumExecutors());
+
+        Node node = launch.slaveName == null ? null : Jenkins.get().getNode(launch.slaveName);
+        if (node instanceof NomadSlave)
+            agentAdded((NomadSlave) node);
+    }
+
+    /**
+     * Counts an agent added to Jenkins, unless its launch still counts for it.
+     */
+    synchronized void agentAdded(NomadSlave slave) {
+        if (!cloud.name.equals(slave.getCloudName()) || agents.containsKey(slave.getNodeName()) || isLaunching(slave.getNodeName()))
+            return;
+
+        Usage agent = new Usage(slave.getTemplatePrefix());
+        agent.instances = 1;
+        agent.executors = slave.getNumExecutors();
+        agents.put(slave.getNodeName(), agent);
+        count(agent.prefix, agent.instances, agent.executors);
+    }
+
+    synchronized void agentRemoved(NomadSlave slave) {
+        Usage agent = agents.remove(slave.getNodeName());
+        if (agent != null)
+            count(agent.prefix, -agent.instances, -agent.executors);
+    }
+
+    private void add(Launch launch) {
+        launches.add(launch);
+        count(launch.template.getPrefix(), 1, launch.template.getNumExecutors());
+    }
+
+    private void count(@Nullable String prefix, int instances, int executors) {
+        total.instances += instances;
+        total.executors += executors;
+        if (prefix != null) {
+            Usage own = usage(prefix);
+            own.instances += instances;
+            own.executors += executors;
+        }
+    }
+
+    private Usage usage(String prefix) {
+        return usage.computeIfAbsent(prefix, Usage::new);
+    }
+
+    private void recountIfDue() {
+        long now = System.currentTimeMillis();
+        if (recounted != Long.MIN_VALUE && now - recounted < RECOUNT_INTERVAL_MILLIS)
+            return;
+
+        int instances = total.instances;
+        int executors = total.executors;
+        recount();
+        recounted = now;
+
+        if (LOGGER.isLoggable(Level.FINE) && (instances != total.instances || executors != total.executors))
+            LOGGER.log(Level.FINE, "Recounted cloud " + cloud.name + ": " + total.instances + " agents with "
+                    + total.executors + " executors instead of " + instances + " with " + executors);
+    }
+
+    // Counts the launches and the nodes of this cloud from scratch
+    private void recount() {
+        usage.clear();
+        agents.clear();
+        total.instances = 0;
+        total.executors = 0;
+
+        for (Launch launch : launches) {
+            count(launch.template.getPrefix(), 1, launch.template.getNumExecutors());
+        }
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof NomadSlave)
+                agentAdded((NomadSlave) node);
+        }
+    }
+
+    synchronized boolean isLaunching(String slaveName) {
+        for (Launch launch : launches) {
+            if (slaveName.equals(launch.slaveName))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Warm pool launches of the template in flight.
+     */
+    synchronized int getWarming(NomadSlaveTemplate template) {
+        int warming = 0;
+        for (Launch launch : launches) {
+            if (launch.purpose == Purpose.WARM && launch.template.getPrefix().equals(template.getPrefix()))
+                warming++;
+        }
+        return warming;
+    }
+
+    /**
+     * Executors of the template's launches whose agent was not added to Jenkins yet. Once added, the node of a
+     * launching agent is counted by Jenkins among the connecting executors.
+     */
+    synchronized int getUnregistered(NomadSlaveTemplate template) {
+        int executors = 0;
+        for (Launch launch : launches) {
+            if (!launch.template.getPrefix().equals(template.getPrefix()))
+                continue;
+            if (launch.slaveName == null || Jenkins.get().getNode(launch.slaveName) == null)
+                executors += launch.template.getNumExecutors();
+        }
+        return executors;
+    }
+
+    /**
+     * Executors of the warm pool and pre-provisioning launches in flight, across all templates.
+     */
+    synchronized int getLaunchingAhead() {
+        int executors = 0;
+        for (Launch launch : launches) {
+            if (launch.purpose != Purpose.DEMAND)
+                executors += launch.template.getNumExecutors();
+        }
+        return executors;
+    }
+
+    /**
+     * The executors of the given template, or of the whole cloud for null.
+     */
+    synchronized Snapshot snapshot(@Nullable NomadSlaveTemplate template) {
+        int instances = 0;
+        int pending = 0;
+        int connecting = 0;
+        int busy = 0;
+        int idle = 0;
+        int offline = 0;
+
+        Set<String> launching = new HashSet<>();
+        for (Launch launch : launches) {
+            if (launch.slaveName != null)
+                launching.add(launch.slaveName);
+            if (template != null && !launch.template.getPrefix().equals(template.getPrefix()))
+                continue;
+
+            instances++;
+            if (launch.state == State.PENDING)
+                pending += launch.template.getNumExecutors();
+            else
+                connecting += launch.template.getNumExecutors();
+        }
+
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof NomadSlave) || launching.contains(node.getNodeName()))
+                continue;
+
+            NomadSlave slave = (NomadSlave) node;
+            if (!cloud.name.equals(slave.getCloudName()) || (template != null && !slave.isOfTemplate(template)))
+                continue;
+
+            instances++;
+            Computer computer = slave.toComputer();
+            if (computer != null && computer.isOnline()) {
+                busy += computer.countBusy();
+                idle += computer.countIdle();
+            } else {
+                // Offline agents still hold their share of the caps
+                offline += slave.getNumExecutors();
+            }
+        }
+
+        return new Snapshot(instances, pending, connecting, busy, idle, offline);
+    }
+
+    /**
+     * The agents and executors of one template, one agent or the whole cloud.
+     */
+    private static final class Usage {
+        private final String prefix;
+        private int instances;
+        private int executors;
+
+        Usage(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * The capacity reserved for one agent launch.
+     */
+    static final class Launch {
+        private final NomadSlaveTemplate template;
+        private final Purpose purpose;
+
+        private volatile String slaveName;
+        private State state = State.PENDING;
+
+        private Launch(NomadSlaveTemplate template, Purpose purpose) {
+            this.template = template;
+            this.purpose = purpose;
+        }
+
+        void setSlaveName(String slaveName) {
+            this.slaveName = slaveName;
+        }
+    }
+
+    /**
+     * Executor counts of a template or a cloud at one point in time.
+     */
+    public static final class Snapshot {
+        private final int instances;
+        private final int pending;
+        private final int connecting;
+        private final int busy;
+        private final int idle;
+        private final int offline;
+
+        Snapshot(int instances, int pending, int connecting, int busy, int idle, int offline) {
+            this.instances = instances;
+            this.pending = pending;
+            this.connecting = connecting;
+            this.busy = busy;
+            this.idle = idle;
+            this.offline = offline;
+        }
+
+        /**
+         * Agents being launched or present as nodes.
+         */
+        public int getInstances() {
+            return instances;
+        }
+
+        /**
+         * Executors of launches that were requested but not scheduled on Nomad yet.
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * Executors of launches scheduled on Nomad whose agent has not connected yet.
+         */
+        public int getConnecting() {
+            return connecting;
+        }
+
+        public int getBusy() {
+            return busy;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * Executors of agents that are neither launching nor online, e.g. disconnected ones.
+         */
+        public int getOffline() {
+            return offline;
+        }
+
+        /**
+         * Executors that will be available once every launch completed, busy or not.
+         */
+        public int getExecutors() {
+            return pending + connecting + busy + idle + offline;
+        }
+
+        @Override
+        public String toString() {
+            return instances + " agents, " + pending + " pending, " + connecting + " connecting, "
+                    + busy + " busy, " + idle + " idle and " + offline + " offline executors";
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.nomad;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to a Nomad cluster that keeps failing. After a number of consecutive failures the
+ * breaker opens and requests fail right away. Once the open period has passed a single probe request is let
+ * through, which closes the breaker again if it succeeds.
+ *
+ * Only unreachable servers and server errors count as failures, an answer such as 404 shows Nomad is healthy.
+ */
+final class NomadCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadCircuitBreaker.class.getName());
+
+    static final int FAILURE_THRESHOLD = Integer.getInteger(NomadCircuitBreaker.class.getName() + ".failureThreshold", 5);
+
+    static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Integer.getInteger(NomadCircuitBreaker.class.getName() + ".openSeconds", 30));
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+
+    NomadCircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Whether a request may be sent now. A caller that was allowed must report the outcome through
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil)
+                    return false;
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing)
+                    return false;
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Whether requests are currently refused, not counting the probe let through once the open period is over.
+     */
+    synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() < openUntil
+                || state == State.HALF_OPEN && probing;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized void recordSuccess() {
+        if (state != State.CLOSED)
+            LOGGER.log(Level.INFO, "Nomad at " + name + " is answering again, closing the circuit breaker");
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        probing = false;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            if (state != State.OPEN)
+                LOGGER.log(Level.WARNING, "Nomad at " + name + " failed " + consecutiveFailures
+                        + " requests in a row, refusing requests for " + OPEN_MILLIS + " ms");
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + OPEN_MILLIS;
+        }
+    }
+
+    /**
+     * A request was not sent because the circuit breaker is open.
+     */
+    static final class OpenException extends IOException {
+        OpenException(String operation, String name) {
+            super(operation + " not attempted, Nomad at " + name + " is failing and the circuit breaker is open");
+        }
+    }
+}
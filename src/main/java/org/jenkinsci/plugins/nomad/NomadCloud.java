@@ -5,27 +5,38 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import hudson.security.ACL;
 import hudson.slaves.AbstractCloudImpl;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
+import hudson.slaves.SlaveComputer;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
 import jenkins.slaves.JnlpSlaveAgentProtocol;
+import jenkins.util.Timer;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.nomad.Api.AllocationInfo;
 import org.jenkinsci.plugins.nomad.Api.JobInfo;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.filter;
 import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.withId;
@@ -35,16 +46,32 @@ import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+
 import static org.apache.commons.lang.StringUtils.trimToEmpty;
 
 public class NomadCloud extends AbstractCloudImpl {
 
     private static final Logger LOGGER = Logger.getLogger(NomadCloud.class.getName());
 
+    // The transports the clouds built, closed once their cloud is replaced
+    private static final Map<NomadCloud, NomadHttpTransport> TRANSPORTS = new WeakHashMap<>();
+
+    // How often a replaced cloud checks whether it is done with its transport
+    private static final long RETIRE_CHECK_SECONDS = 30;
+
+    static final int DEFAULT_LAUNCH_TIMEOUT_FLOOR_SECONDS = 30;
+
+    // How long a resolved ACL token is used before its credentials are looked up again, in case a credentials
+    // provider changed it without saving through Jenkins
+    static final long ACL_CACHE_MILLIS = TimeUnit.SECONDS.toMillis(
+            Integer.getInteger(NomadCloud.class.getName() + ".aclCacheSeconds", 300));
+
     private final List<? extends NomadSlaveTemplate> templates;
 
     private final String nomadUrl;
@@ -56,9 +83,75 @@ public class NomadCloud extends AbstractCloudImpl {
 
     private final Boolean prune;
 
+    // Whether deregistered jobs are purged from Nomad's state, null for the default of purging them
+    private Boolean purgeJobs;
+
     private NomadApi nomad;
 
-    private int pending = 0;
+    // HTTP transport settings, null for the defaults of NomadHttpTransport
+    private Integer maxRequestsPerHost;
+    private Integer maxIdleConnections;
+    private Integer keepAliveSeconds;
+    private Integer connectTimeoutSeconds;
+    private Integer readTimeoutSeconds;
+    private Boolean http2;
+
+    // Agents launched per minute at most and at once, across all templates
+    private int launchRatePerMinute;
+    private int launchBurst;
+
+    private transient NomadLaunchThrottle throttle;
+
+    // Caps across all templates, 0 for no limit
+    private int maxInstances;
+    private int maxExecutors;
+
+    // Executors launched ahead of the forecast demand at most, 0 to only launch for queued items
+    private int preProvisionBudget;
+
+    private transient NomadCapacityLedger ledger;
+
+    private transient NomadLaunchStats launchStats;
+
+    private transient NomadClusterCapacity clusterCapacity;
+
+    private transient NomadEvaluations evaluations;
+
+    private transient NomadTerminationQueue terminations;
+
+    // The resolved ACL token, empty without one, and null until the credentials are looked up
+    private transient volatile Optional<String> nomadACL;
+    private transient volatile long nomadACLResolved;
+    private transient volatile long nomadACLLookupMillis = -1;
+
+    // Bounds of the launch timeouts derived from the templates' launch latencies
+    private Integer launchTimeoutFloorSeconds;
+    private Integer launchTimeoutCeilingSeconds;
+
+    private transient NomadLaunchTimeouts launchTimeouts;
+
+    // Executors per template the last provisioning round could not launch because the cluster had no room for them
+    private transient ConcurrentMap<NomadSlaveTemplate, Integer> waitingForCapacity;
+
+    private transient volatile NomadReconciler.Result lastReconciliation;
+
+    // Adoption of the agents whose jobs outlived a restart of Jenkins, null if there was none
+    private transient volatile CompletableFuture<Void> restoration;
+
+    private transient volatile NomadTemplateResolver templateResolver;
+
+    private transient NomadLaunchBatcher batcher;
+
+    private transient NomadJobWatcher watcher;
+
+    private transient NomadEventStream events;
+
+    // Launches waiting for their agent to connect, by launch key
+    private transient ConcurrentMap<String, NomadLaunchWatch> launches;
+
+    // Launches of this cloud from their reservation until they are done, which the cloud's transport serves even
+    // after a configuration save replaced the cloud
+    private transient AtomicInteger launchesInFlight;
 
     @DataBoundConstructor
     public NomadCloud(
@@ -90,7 +183,20 @@ public class NomadCloud extends AbstractCloudImpl {
     }
 
     private Object readResolve() {
-        nomad = new NomadApi(nomadUrl);
+        nomad = new NomadApi(nomadUrl, this::buildTransport);
+        batcher = new NomadLaunchBatcher(this);
+        throttle = new NomadLaunchThrottle(this);
+        ledger = new NomadCapacityLedger(this);
+        launchStats = new NomadLaunchStats();
+        clusterCapacity = new NomadClusterCapacity(this);
+        evaluations = new NomadEvaluations(this);
+        terminations = new NomadTerminationQueue(this);
+        launchTimeouts = new NomadLaunchTimeouts();
+        waitingForCapacity = new ConcurrentHashMap<>();
+        templateResolver = new NomadTemplateResolver(templates);
+        launches = new ConcurrentHashMap<>();
+        launchesInFlight = new AtomicInteger();
+        takeOver(replacedCloud());
         jenkinsUrl = Jenkins.get().getRootUrl();
 
         if (Strings.isNullOrEmpty(jenkinsUrl)) {
@@ -104,141 +210,820 @@ public class NomadCloud extends AbstractCloudImpl {
         return this;
     }
 
+    // The cloud of the same name this one replaces, e.g. when saving the configuration creates new cloud instances
+    @Nullable
+    private NomadCloud replacedCloud() {
+        Cloud current = Jenkins.get().getCloud(name);
+        return current instanceof NomadCloud && current != this ? (NomadCloud) current : null;
+    }
+
+    /**
+     * Takes over the launches in flight of the replaced cloud, so they keep counting toward the caps and launch
+     * rates of this one.
+     */
+    private void takeOver(@Nullable NomadCloud replaced) {
+        if (replaced == null)
+            return;
+
+        ledger = replaced.ledger;
+        ledger.handOver(this);
+        throttle = replaced.throttle;
+        throttle.handOver(this);
+    }
+
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
+        return provision(label, excessWorkload, NomadCapacityLedger.Purpose.DEMAND);
+    }
+
+    /**
+     * Launches agents for the demand the forecast expects, which count against the pre-provisioning budget.
+     */
+    Collection<NodeProvisioner.PlannedNode> provisionAhead(Label label, int excessWorkload) {
+        return provision(label, excessWorkload, NomadCapacityLedger.Purpose.AHEAD);
+    }
+
+    private Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload, NomadCapacityLedger.Purpose purpose) {
 
         List<NodeProvisioner.PlannedNode> nodes = new ArrayList<>();
         final NomadSlaveTemplate template = getTemplate(label);
 
-        if (template != null) {
-            if (getPrune())
-                pruneOrphanedWorkers(template);
+        if (!isNomadAvailable()) {
+            LOGGER.log(Level.WARNING, "Nomad at " + nomadUrl + " is failing, not provisioning any slaves until it recovers");
+            return Collections.emptyList();
+        }
 
+        if (template != null) {
             try {
+                boolean clusterFull = false;
                 while (excessWorkload > 0) {
+                    final NomadCapacityLedger.Launch reservation = ledger.reserve(template, purpose);
+                    if (reservation == null) {
+                        LOGGER.log(Level.INFO, "Excess workload of " + excessWorkload + " left, template " + template.getPrefix()
+                                + " or cloud " + name + " reached its maximum number of instances or executors");
+                        break;
+                    }
+                    final NomadClusterCapacity.Placement placement = clusterCapacity.place(template);
+                    if (placement == null) {
+                        ledger.release(reservation);
+                        clusterFull = true;
+                        break;
+                    }
                     LOGGER.log(Level.INFO, "Excess workload of " + excessWorkload + ", provisioning new Jenkins slave on Nomad cluster");
 
-                    final String slaveName = template.createSlaveName();
+                    final NomadLaunchBatcher.Member member;
+                    final String slaveName;
+                    try {
+                        member = template.isBatchLaunch() ? batcher.reserve(template) : null;
+                        slaveName = member != null ? member.getSlaveName() : template.createSlaveName();
+                    } catch (RuntimeException e) {
+                        // Nothing was launched for the reservation
+                        ledger.release(reservation);
+                        clusterCapacity.release(placement);
+                        throw e;
+                    }
                     nodes.add(new NodeProvisioner.PlannedNode(
                             slaveName,
-                            NomadComputer.threadPoolForRemoting.submit(
-                                    new ProvisioningCallback(slaveName, template, this)
-                            ), template.getNumExecutors()));
+                            new ProvisioningCallback(slaveName, template, this, member, reservation, placement).launch(),
+                            template.getNumExecutors()));
                     excessWorkload -= template.getNumExecutors();
-                    pending += template.getNumExecutors();
                 }
+
+                if (clusterFull)
+                    LOGGER.log(Level.INFO, "Excess workload of " + excessWorkload + " for template " + template.getPrefix()
+                            + " is waiting for cluster capacity, no Nomad node has room for another agent");
+                waitingForCapacity.put(template, clusterFull ? excessWorkload : 0);
+
+                int queued = throttle.getQueued(template);
+                if (queued > 0)
+                    LOGGER.log(Level.INFO, queued + " launches of template " + template.getPrefix() + " are waiting for the launch rate limit");
                 return nodes;
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Unable to schedule new Jenkins slave on Nomad cluster, message: " + e.getMessage());
+                // The launches started before hold their capacity until they complete, so Jenkins has to know them
+                return nodes;
             }
         }
 
         return Collections.emptyList();
     }
 
-    private void pruneOrphanedWorkers(NomadSlaveTemplate template) {
-        JobInfo[] nomadWorkers = this.nomad.getRunningWorkers(template.getPrefix(), getNomadACL());
+    /**
+     * The watcher mirroring this cloud's Nomad jobs, started on first use.
+     */
+    synchronized NomadJobWatcher getJobWatcher() {
+        if (watcher == null) {
+            watcher = new NomadJobWatcher(this, getJobPrefixes());
+            watcher.start();
+        }
+        return watcher;
+    }
+
+    /**
+     * The event stream failing this cloud's pending launches early, started on first use.
+     */
+    synchronized NomadEventStream getEventStream() {
+        if (events == null) {
+            events = new NomadEventStream(this, getJobPrefixes());
+            events.start();
+        }
+        return events;
+    }
 
-        for (JobInfo worker : nomadWorkers) {
-            if (worker.getStatus().equalsIgnoreCase("running")) {
-                LOGGER.log(Level.FINE, "Found worker: " + worker.getName() + " - " + worker.getID());
-                Node node = Jenkins.get().getNode(worker.getName());
+    /**
+     * The prefixes of this cloud's jobs, one per template, leaving out those covered by a shorter one.
+     */
+    List<String> getJobPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        for (NomadSlaveTemplate template : templates) {
+            prefixes.add(template.getPrefix());
+        }
+        return coveringPrefixes(prefixes);
+    }
 
-                if (node == null) {
-                    LOGGER.log(Level.FINE, "Found Orphaned Node: " + worker.getID());
-                    this.nomad.stopSlave(worker.getID(), getNomadACL());
-                }
+    static List<String> coveringPrefixes(Collection<String> prefixes) {
+        List<String> sorted = new ArrayList<>(new TreeSet<>(prefixes));
+        List<String> covering = new ArrayList<>();
+        for (String prefix : sorted) {
+            // Sorted, a prefix comes right after the prefixes covering it
+            if (covering.isEmpty() || !prefix.startsWith(covering.get(covering.size() - 1)))
+                covering.add(prefix);
+        }
+        return covering;
+    }
+
+    // Identifies one launch: the job ID, followed by the allocation index for agents of a batch
+    private static String launchKey(String jobId, Integer allocIndex) {
+        return allocIndex == null ? jobId : jobId + "[" + allocIndex + "]";
+    }
+
+    private NomadLaunchWatch watchLaunch(NomadSlaveTemplate template, String jobId, Integer allocIndex) {
+        getEventStream();
+        return launches.computeIfAbsent(launchKey(jobId, allocIndex), k -> new NomadLaunchWatch(template));
+    }
+
+    private void forgetLaunch(String jobId, Integer allocIndex) {
+        launches.remove(launchKey(jobId, allocIndex));
+    }
+
+    // The allocations of a job that is not a batch have index 0, but its launch is keyed by the job ID alone
+    private NomadLaunchWatch findLaunch(String jobId, @Nullable Integer allocIndex) {
+        NomadLaunchWatch launch = launches.get(launchKey(jobId, allocIndex));
+        return launch != null ? launch : launches.get(jobId);
+    }
+
+    /**
+     * Fails the pending launches of the given job, or only the one of the given allocation of a batch job.
+     */
+    void launchFailed(String jobId, @Nullable Integer allocIndex, String reason) {
+        NomadLaunchWatch launch = launches.get(launchKey(jobId, allocIndex));
+        if (launch != null) {
+            launch.getFailure().complete(reason);
+            return;
+        }
+
+        // An evaluation or a deregistration concerns every agent of a batch job
+        for (Map.Entry<String, NomadLaunchWatch> pending : launches.entrySet()) {
+            String key = pending.getKey();
+            if (key.equals(jobId) || (allocIndex == null && key.startsWith(jobId + "[")))
+                pending.getValue().getFailure().complete(reason);
+        }
+    }
+
+    /**
+     * Fails the pending launches of the given job whose allocations Nomad could not place. The scheduler may place
+     * part of a batch job, so of a batch only the launches without an allocation fail, the others still come up.
+     */
+    void placementFailed(String jobId, String reason) {
+        boolean batched = false;
+        for (String key : launches.keySet()) {
+            batched |= key.startsWith(jobId + "[");
+        }
+        if (!batched) {
+            launchFailed(jobId, null, reason);
+            return;
+        }
+
+        nomad.getAllocations(jobId).whenComplete((allocations, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Could not list the allocations of job " + jobId + ", failing all its launches", NomadApi.unwrap(e));
+                launchFailed(jobId, null, reason);
+                return;
             }
+
+            Set<String> placed = new HashSet<>();
+            for (AllocationInfo allocation : allocations == null ? new AllocationInfo[0] : allocations) {
+                placed.add(launchKey(jobId, allocation.getIndex()));
+            }
+            for (Map.Entry<String, NomadLaunchWatch> pending : launches.entrySet()) {
+                String key = pending.getKey();
+                if (key.startsWith(jobId + "[") && !placed.contains(key))
+                    pending.getValue().getFailure().complete(reason);
+            }
+        });
+    }
+
+    /**
+     * Notes that Nomad restarted the tasks of a pending launch's allocation the given number of times in total,
+     * which pushes the launch's deadline back by the template's restart delay per restart.
+     */
+    void launchRestarted(String jobId, @Nullable Integer allocIndex, String allocId, int restarts) {
+        NomadLaunchWatch launch = findLaunch(jobId, allocIndex);
+        if (launch == null)
+            return;
+
+        long extended = launch.restarted(allocId, restarts);
+        if (extended > 0)
+            LOGGER.log(Level.INFO, "Nomad restarted allocation " + allocId + " of job " + jobId
+                    + ", extending its launch timeout by " + extended + " ms");
+    }
+
+    /**
+     * Whether Nomad reschedules the failed allocation of a pending launch, which then keeps waiting with its
+     * deadline pushed back by the template's reschedule delay, rather than failing.
+     */
+    boolean launchRescheduled(String jobId, @Nullable Integer allocIndex, String allocId) {
+        NomadLaunchWatch launch = findLaunch(jobId, allocIndex);
+        if (launch == null || !launch.rescheduled(allocId))
+            return false;
+
+        LOGGER.log(Level.FINE, "Nomad reschedules failed allocation " + allocId + " of job " + jobId);
+        return true;
+    }
+
+    /**
+     * The Nomad jobs with the given prefix, read from the job mirror when it is in sync and from the API otherwise.
+     */
+    JobInfo[] getWorkers(String prefix) {
+        NomadJobWatcher jobWatcher = getJobWatcher();
+        if (jobWatcher.isSynced())
+            return jobWatcher.getJobs(prefix);
+
+        return this.nomad.getRunningWorkers(prefix);
+    }
+
+    /**
+     * Whether the job mirror knows the given job to be dead already, so there is nothing left to stop.
+     * A job missing from the mirror is not assumed dead, it may just have been registered.
+     */
+    boolean isJobDead(String jobId) {
+        NomadJobWatcher jobWatcher = getJobWatcher();
+        if (!jobWatcher.isSynced())
+            return false;
+
+        JobInfo job = jobWatcher.getJob(jobId);
+        return job != null && "dead".equalsIgnoreCase(job.getStatus());
+    }
+
+    /**
+     * Finds the child job dispatched from the given parameterized job for the given agent.
+     */
+    String findDispatchedJob(String parentId, String slaveName) {
+        JobInfo[] children = getWorkers(parentId + "/");
+        if (children == null)
+            return null;
+
+        for (JobInfo child : children) {
+            if (parentId.equals(child.getParentID()) && slaveName.equals(this.nomad.getDispatchedSlaveName(child.getID())))
+                return child.getID();
         }
+        return null;
+    }
+
+    // A dispatched child whose slave has not recorded the child job ID yet, e.g. while the dispatch is in flight
+    boolean isDispatchedForExistingSlave(JobInfo worker) {
+        if (StringUtils.isEmpty(worker.getParentID()))
+            return false;
 
+        String slaveName = this.nomad.getDispatchedSlaveName(worker.getID());
+        return slaveName != null && Jenkins.get().getNode(slaveName) != null;
     }
 
-    private class ProvisioningCallback implements Callable<Node> {
+    /**
+     * Launches one agent as a chain of stages: scheduling it on Nomad, waiting for the batch job it belongs to,
+     * then waiting for its computer to come online. No thread is held while waiting, the connection is signalled
+     * by {@link NomadComputerListener} and the timeout by the shared {@link Timer}.
+     */
+    private class ProvisioningCallback {
 
         String slaveName;
         NomadSlaveTemplate template;
         NomadCloud cloud;
+        NomadLaunchBatcher.Member member;
+        NomadCapacityLedger.Launch reservation;
+        // Where the agent was placed on the cluster capacity model, null for adopted agents
+        NomadClusterCapacity.Placement placement;
 
-        public ProvisioningCallback(String slaveName, NomadSlaveTemplate template, NomadCloud cloud) {
+        private volatile NomadSlave slave;
+        private volatile long started;
+
+        // Fails when Nomad reports that the agent will not come up, replaced once the agent's job is known
+        private volatile NomadLaunchWatch launch;
+
+        public ProvisioningCallback(String slaveName, NomadSlaveTemplate template, NomadCloud cloud, NomadLaunchBatcher.Member member,
+                                    NomadCapacityLedger.Launch reservation, NomadClusterCapacity.Placement placement) {
             this.slaveName = slaveName;
             this.template = template;
             this.cloud = cloud;
+            this.member = member;
+            this.reservation = reservation;
+            this.placement = placement;
+            this.launch = new NomadLaunchWatch(template);
+            launchesInFlight.incrementAndGet();
+        }
+
+        /**
+         * Waits for the agent of a job that outlived a restart of Jenkins to reconnect to its recreated node.
+         */
+        CompletableFuture<Node> adopt(NomadSlave adopted) {
+            reservation.setSlaveName(slaveName);
+            slave = adopted;
+            started = System.currentTimeMillis();
+            launch = watchLaunch(template, slave.getJobId(), slave.getAllocIndex());
+            return awaitOnline().whenComplete((node, e) -> {
+                forgetLaunch(slave.getJobId(), slave.getAllocIndex());
+                ledger.release(reservation);
+                launchesInFlight.decrementAndGet();
+            });
         }
 
-        public Node call() throws Exception {
-            final NomadSlave slave = new NomadSlave(
-                    slaveName,
-                    name,
-                    template,
-                    template.getLabels(),
-                    new NomadRetentionStrategy(template.getIdleTerminationInMinutes()),
-                    Collections.emptyList()
-            );
-            Jenkins.get().addNode(slave);
-
-            // Support for Jenkins security
-            String jnlpSecret = "";
-            if (Jenkins.get().isUseSecurity()) {
-                jnlpSecret = JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(slaveName);
+        CompletableFuture<Node> launch() {
+            reservation.setSlaveName(slaveName);
+            // The agents of a batch pass the launch rate limits together, when their batch job is registered
+            CompletableFuture<Void> admitted = member != null ? CompletableFuture.completedFuture(null) : throttle.acquire(template);
+            return admitted
+                    .thenApplyAsync(v -> addNode(), Computer.threadPoolForRemoting)
+                    .thenCompose(s -> schedule())
+                    .thenCompose(s -> awaitOnline())
+                    .whenComplete((node, e) -> {
+                        if (slave != null && slave.getJobId() != null)
+                            forgetLaunch(slave.getJobId(), slave.getAllocIndex());
+                        ledger.release(reservation);
+                        launchesInFlight.decrementAndGet();
+                        if (e == null) {
+                            long latency = System.currentTimeMillis() - started;
+                            launchStats.recordSuccess(latency);
+                            launchTimeouts.record(template, latency);
+                        } else {
+                            launchStats.recordFailure();
+                            clusterCapacity.release(placement);
+                        }
+                    });
+        }
+
+        private NomadSlave addNode() {
+            started = System.currentTimeMillis();
+            try {
+                slave = new NomadSlave(
+                        slaveName,
+                        name,
+                        template,
+                        template.getLabels(),
+                        new NomadRetentionStrategy(template.getIdleTerminationInMinutes()),
+                        Collections.emptyList(),
+                        template.isDispatchLaunch() ? null : member != null ? member.getJobId() : slaveName,
+                        member != null ? member.getIndex() : null,
+                        template.isDispatchLaunch() ? NomadApi.dispatchParentId(template) : null
+                );
+                Jenkins.get().addNode(slave);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                if (member != null)
+                    member.ready();
             }
 
-            LOGGER.log(Level.INFO, "Asking Nomad to schedule new Jenkins slave");
-            nomad.startSlave(cloud, slaveName, getNomadACL(), jnlpSecret, template);
-
-            // Check scheduling success
-            Callable<Boolean> callableTask = () -> {
-                try {
-                    LOGGER.log(Level.INFO, "Slave scheduled, waiting for connection");
-                    Objects.requireNonNull(slave.toComputer()).waitUntilOnline(); // a loop query
-                } catch (InterruptedException e) {
-                    LOGGER.log(Level.SEVERE, "Waiting for connection was interrupted");
-                    return false;
+            if (!template.isDispatchLaunch())
+                launch = watchLaunch(template, slave.getJobId(), slave.getAllocIndex());
+            return slave;
+        }
+
+        // Registers the agent's job, or waits for the batch job it is part of to be registered
+        private CompletableFuture<NomadSlave> schedule() {
+            CompletableFuture<?> scheduled;
+            // Nomad's evaluation of the job tells within seconds whether its allocations can be placed
+            if (member != null) {
+                scheduled = member.getRegistration().thenAccept(response -> {
+                    if (response != null)
+                        evaluations.follow(member.getJobId(), response.getEvalID());
+                });
+            } else {
+                // Support for Jenkins security
+                String jnlpSecret = "";
+                if (Jenkins.get().isUseSecurity()) {
+                    jnlpSecret = JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(slaveName);
+                }
+
+                if (template.isDispatchLaunch()) {
+                    LOGGER.log(Level.INFO, "Asking Nomad to dispatch new Jenkins slave");
+                    scheduled = nomad.dispatchSlave(cloud, slaveName, jnlpSecret, template).thenAccept(response -> {
+                        slave.setJobId(response.getDispatchedJobID());
+                        if (slave.getJobId() != null) {
+                            launch = watchLaunch(template, slave.getJobId(), null);
+                            evaluations.follow(slave.getJobId(), response.getEvalID());
+                        }
+                    });
+                } else {
+                    LOGGER.log(Level.INFO, "Asking Nomad to schedule new Jenkins slave");
+                    scheduled = nomad.startSlave(cloud, slaveName, jnlpSecret, template).thenAccept(response -> {
+                        if (response != null)
+                            evaluations.follow(slaveName, response.getEvalID());
+                    });
+                }
+            }
+
+            return scheduled.handleAsync((v, e) -> {
+                if (e == null)
+                    return slave;
+
+                String jobId = member != null ? member.getJobId() : slaveName;
+                Throwable cause = NomadApi.unwrap(e);
+                LOGGER.log(Level.SEVERE, "Nomad job " + jobId + " could not be scheduled, terminating slave " + slave, cause);
+                terminate(slave);
+                throw new RuntimeException("Failed to schedule Nomad job " + jobId, cause);
+            }, Computer.threadPoolForRemoting);
+        }
+
+        private CompletableFuture<Node> awaitOnline() {
+            LOGGER.log(Level.INFO, "Slave scheduled, waiting for connection");
+            ledger.connecting(reservation);
+
+            final CompletableFuture<Void> online = NomadComputerListener.expect(slave);
+            final NomadLaunchWatch watched = launch;
+            watched.await(online, getLaunchTimeoutMillis(template));
+
+            // Stop waiting as soon as Nomad reports that the agent will not come up
+            final CompletableFuture<String> failed = watched.getFailure();
+            failed.thenRun(() -> online.cancel(false));
+
+            return online.handleAsync((v, e) -> {
+                watched.stop();
+                NomadComputerListener.forget(slave, online);
+
+                if (e == null) {
+                    LOGGER.log(Level.INFO, "Connection established");
+                    return slave;
+                }
+
+                if (failed.isDone()) {
+                    String reason = failed.getNow(null);
+                    LOGGER.log(Level.SEVERE, "Nomad could not start slave " + slave + ", terminating it: " + reason);
+                    logOnNode("Nomad could not start this agent: " + reason);
+                    terminate(slave);
+                    throw new RuntimeException("Nomad could not start agent: " + reason);
                 }
-                return true;
-            };
-
-            // Schedule a slave and wait for the computer to come online
-            ExecutorService executorService = Executors.newCachedThreadPool();
-            Future<Boolean> future = executorService.submit(callableTask);
-
-            try{
-                future.get(cloud.workerTimeout, TimeUnit.MINUTES);
-                LOGGER.log(Level.INFO, "Connection established");
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "Slave computer did not come online within " + workerTimeout + " minutes, terminating slave"+ slave);
+                long timeoutSeconds = TimeUnit.MILLISECONDS.toSeconds(watched.getTimeoutMillis());
+                launchTimeouts.timedOut(template, System.currentTimeMillis() - started);
+                LOGGER.log(Level.SEVERE, "Slave computer did not come online within " + timeoutSeconds + " seconds, terminating slave"+ slave);
+                terminate(slave);
+                throw new RuntimeException("Timed out waiting for agent to start up. Timeout: " + timeoutSeconds + " seconds.");
+            }, Computer.threadPoolForRemoting);
+        }
+
+        // Shown in the agent's log next to its connection attempts
+        private void logOnNode(String message) {
+            Computer computer = slave.toComputer();
+            if (computer instanceof SlaveComputer)
+                ((SlaveComputer) computer).getListener().error(message);
+        }
+
+        private void terminate(NomadSlave slave) {
+            try {
                 slave.terminate();
-                throw new RuntimeException("Timed out waiting for agent to start up. Timeout: " + workerTimeout + " minutes.");
-            } finally {
-                future.cancel(true);
-                executorService.shutdown();
-                pending -= template.getNumExecutors();
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.SEVERE, "Failed to terminate slave " + slave, e);
             }
-            return slave;
         }
     }
 
     // Find the correct template for job
     public NomadSlaveTemplate getTemplate(Label label) {
-        for (NomadSlaveTemplate t : templates) {
-            if (label == null && !t.getLabelSet().isEmpty()) {
-                continue;
+        return templateResolver.resolve(label);
+    }
+
+    @Nullable
+    NomadSlaveTemplate getTemplateByPrefix(String prefix) {
+        for (NomadSlaveTemplate template : templates) {
+            if (template.getPrefix().equals(prefix))
+                return template;
+        }
+        return null;
+    }
+
+    /**
+     * The template an agent or job of the given name was started from: the one with the longest prefix the name
+     * starts with, as prefixes may overlap, e.g. {@code jenkins} and {@code jenkins-java}.
+     */
+    @Nullable
+    NomadSlaveTemplate getTemplateOf(String name) {
+        NomadSlaveTemplate longest = null;
+        for (NomadSlaveTemplate template : templates) {
+            if (name.startsWith(template.getPrefix() + "-")
+                    && (longest == null || template.getPrefix().length() > longest.getPrefix().length()))
+                longest = template;
+        }
+        return longest;
+    }
+
+    /**
+     * Forgets which templates labels were resolved to, e.g. after the configuration was saved.
+     */
+    void invalidateTemplateCache() {
+        templateResolver = new NomadTemplateResolver(templates);
+    }
+
+    @Extension
+    public static final class ConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                for (Cloud cloud : ((Jenkins) o).clouds) {
+                    if (cloud instanceof NomadCloud)
+                        ((NomadCloud) cloud).invalidateTemplateCache();
+                }
+                retireReplacedClouds();
+            } else if (o instanceof SystemCredentialsProvider) {
+                for (Cloud cloud : Jenkins.get().clouds) {
+                    if (cloud instanceof NomadCloud)
+                        ((NomadCloud) cloud).invalidateNomadACL();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the capacity ledgers of the clouds up to date with the agents added to and removed from Jenkins.
+     */
+    @Extension
+    public static final class NodeCountListener extends NodeListener {
+        @Override
+        protected void onCreated(Node node) {
+            NomadCapacityLedger ledger = ledgerOf(node);
+            if (ledger != null)
+                ledger.agentAdded((NomadSlave) node);
+        }
+
+        @Override
+        protected void onUpdated(Node oldOne, Node newOne) {
+            onDeleted(oldOne);
+            onCreated(newOne);
+        }
+
+        @Override
+        protected void onDeleted(Node node) {
+            NomadCapacityLedger ledger = ledgerOf(node);
+            if (ledger != null)
+                ledger.agentRemoved((NomadSlave) node);
+        }
+
+        private static NomadCapacityLedger ledgerOf(Node node) {
+            if (!(node instanceof NomadSlave))
+                return null;
+            Cloud cloud = Jenkins.get().getCloud(((NomadSlave) node).getCloudName());
+            return cloud instanceof NomadCloud ? ((NomadCloud) cloud).ledger : null;
+        }
+    }
+
+    /**
+     * Adopts the agents of this cloud whose Nomad jobs outlived a restart of Jenkins in the background. Until
+     * that is done, this cloud provisions no agents, so it does not launch agents for demand the adopted ones
+     * are about to cover.
+     */
+    void restore() {
+        restoration = CompletableFuture.runAsync(() -> NomadReconciler.restore(this), Computer.threadPoolForRemoting)
+                .whenComplete((v, e) -> {
+                    if (e != null)
+                        LOGGER.log(Level.WARNING, "Failed to adopt the running agents of cloud " + name, NomadApi.unwrap(e));
+                });
+    }
+
+    boolean isRestoring() {
+        CompletableFuture<Void> restoring = restoration;
+        return restoring != null && !restoring.isDone();
+    }
+
+    /**
+     * Recreates the node of a running agent and waits for the agent to reconnect to it, with the secret derived
+     * from its name as before. Agents that do not reconnect in time are terminated along with their job.
+     */
+    void adopt(NomadSlaveTemplate template, String slaveName, String jobId, @Nullable String parentJobId)
+            throws IOException, Descriptor.FormException {
+        NomadSlave slave = new NomadSlave(
+                slaveName,
+                name,
+                template,
+                template.getLabels(),
+                new NomadRetentionStrategy(template.getIdleTerminationInMinutes()),
+                Collections.emptyList(),
+                jobId,
+                null,
+                parentJobId
+        );
+        Jenkins.get().addNode(slave);
+        new ProvisioningCallback(slaveName, template, this, null, ledger.adopt(template, slaveName), null).adopt(slave);
+    }
+
+    /**
+     * Waits for the next agent of a recycled allocation to connect to its node, like for a new launch. Agents that
+     * do not connect in time, or whose allocation Nomad reports as failed, are terminated along with their job.
+     */
+    void awaitRecycled(NomadSlaveTemplate template, NomadSlave next) {
+        new ProvisioningCallback(next.getNodeName(), template, this, null, ledger.adopt(template, next.getNodeName()), null).adopt(next);
+    }
+
+    /**
+     * Launches agents for the warm pool of the given template. They are added to Jenkins directly, outside of
+     * the NodeProvisioner, and stay idle until a build takes them.
+     */
+    void provisionWarm(NomadSlaveTemplate template, int count) {
+        for (int i = 0; i < count; i++) {
+            NomadCapacityLedger.Launch reservation = ledger.reserve(template, NomadCapacityLedger.Purpose.WARM);
+            if (reservation == null) {
+                LOGGER.log(Level.INFO, "Template " + template.getPrefix() + " or cloud " + name
+                        + " reached its maximum number of instances or executors, not warming " + (count - i) + " more agents");
+                return;
             }
-            if ((label == null && t.getLabelSet().isEmpty()) || (label != null && label.matches(t.getLabelSet()))) {
-                return t;
+            NomadClusterCapacity.Placement placement = clusterCapacity.place(template);
+            if (placement == null) {
+                ledger.release(reservation);
+                LOGGER.log(Level.INFO, "No Nomad node has room for another agent of template " + template.getPrefix()
+                        + ", not warming " + (count - i) + " more agents");
+                return;
             }
+            new ProvisioningCallback(template.createSlaveName(), template, this, null, reservation, placement).launch();
         }
-        return null;
+    }
+
+    int getWarming(NomadSlaveTemplate template) {
+        return ledger.getWarming(template);
+    }
+
+    /**
+     * Online agents of the given template that are idle and accepting tasks.
+     */
+    List<NomadComputer> getIdleComputers(NomadSlaveTemplate template) {
+        List<NomadComputer> idle = new ArrayList<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof NomadSlave))
+                continue;
+
+            NomadSlave slave = (NomadSlave) node;
+            if (!name.equals(slave.getCloudName()) || !slave.isOfTemplate(template))
+                continue;
+
+            NomadComputer computer = (NomadComputer) slave.toComputer();
+            if (computer != null && computer.isOnline() && computer.isIdle() && computer.isAcceptingTasks())
+                idle.add(computer);
+        }
+        return idle;
+    }
+
+    boolean isLaunching(String slaveName) {
+        return ledger.isLaunching(slaveName);
+    }
+
+    /**
+     * The executors of this cloud across all templates, launching and online.
+     */
+    public NomadCapacityLedger.Snapshot getCapacity() {
+        return ledger.snapshot(null);
+    }
+
+    /**
+     * The executors of the given template, launching and online.
+     */
+    public NomadCapacityLedger.Snapshot getCapacity(NomadSlaveTemplate template) {
+        return ledger.snapshot(template);
+    }
+
+    /**
+     * Executors that may still be launched for the label before the caps of its template or this cloud are
+     * reached, {@link Integer#MAX_VALUE} if neither has a cap.
+     */
+    public int getRemainingExecutors(Label label) {
+        NomadSlaveTemplate template = getTemplate(label);
+        if (template == null)
+            return 0;
+
+        return ledger.getRemainingExecutors(template);
+    }
+
+    /**
+     * Executors the last provisioning round of any template could not launch because no Nomad node had room.
+     */
+    public int getWaitingForCapacity() {
+        int waiting = 0;
+        for (int executors : waitingForCapacity.values()) {
+            waiting += executors;
+        }
+        return waiting;
+    }
+
+    public int getWaitingForCapacity(NomadSlaveTemplate template) {
+        return waitingForCapacity.getOrDefault(template, 0);
+    }
+
+    /**
+     * How long to wait for an agent of the template to come online, derived from the template's recent launch
+     * latencies and bounded by the launch timeout floor and ceiling.
+     */
+    public long getLaunchTimeoutMillis(NomadSlaveTemplate template) {
+        long ceiling = TimeUnit.SECONDS.toMillis(getLaunchTimeoutCeilingSeconds());
+        long floor = Math.min(ceiling, TimeUnit.SECONDS.toMillis(getLaunchTimeoutFloorSeconds()));
+        return launchTimeouts.getTimeoutMillis(template, floor, ceiling);
+    }
+
+    /**
+     * Shortest launch timeout derived from launch latencies, 30 seconds by default.
+     */
+    public int getLaunchTimeoutFloorSeconds() {
+        return launchTimeoutFloorSeconds != null ? launchTimeoutFloorSeconds : DEFAULT_LAUNCH_TIMEOUT_FLOOR_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setLaunchTimeoutFloorSeconds(String launchTimeoutFloorSeconds) {
+        this.launchTimeoutFloorSeconds = parsePositive(launchTimeoutFloorSeconds, "launch timeout floor");
+    }
+
+    /**
+     * Longest launch timeout, which also applies to templates without enough launches to go by. The worker
+     * timeout by default.
+     */
+    public int getLaunchTimeoutCeilingSeconds() {
+        return launchTimeoutCeilingSeconds != null ? launchTimeoutCeilingSeconds : (int) TimeUnit.MINUTES.toSeconds(workerTimeout);
+    }
+
+    @DataBoundSetter
+    public void setLaunchTimeoutCeilingSeconds(String launchTimeoutCeilingSeconds) {
+        this.launchTimeoutCeilingSeconds = parsePositive(launchTimeoutCeilingSeconds, "launch timeout ceiling");
+    }
+
+    /**
+     * Recent launch latency and failure rate of this cloud.
+     */
+    NomadLaunchStats getLaunchStats() {
+        return launchStats;
+    }
+
+    /**
+     * The executors of the template serving the label, or null if no template does.
+     */
+    public NomadCapacityLedger.Snapshot getCapacity(Label label) {
+        NomadSlaveTemplate template = getTemplate(label);
+        return template == null ? null : ledger.snapshot(template);
+    }
+
+    /**
+     * Executors being launched for the template serving the label whose agent was not added to Jenkins yet.
+     */
+    int getUnregistered(Label label) {
+        NomadSlaveTemplate template = getTemplate(label);
+        return template == null ? 0 : ledger.getUnregistered(template);
+    }
+
+    /**
+     * What the last reconciliation of this cloud's jobs and slaves found, or null if none ran yet.
+     */
+    public NomadReconciler.Result getLastReconciliation() {
+        return lastReconciliation;
+    }
+
+    void setLastReconciliation(NomadReconciler.Result lastReconciliation) {
+        this.lastReconciliation = lastReconciliation;
+    }
+
+    /**
+     * Marks the given slave of a batch job as terminating, and tells whether no other slave of the job is left.
+     * Decided under a lock so that of several slaves of a job terminating at once, exactly the last one is told.
+     */
+    synchronized boolean isLastSlaveOfJob(String jobId, NomadSlave terminating) {
+        terminating.setTerminating();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node != terminating && node instanceof NomadSlave && !((NomadSlave) node).isTerminating()
+                    && jobId.equals(((NomadSlave) node).getJobId()))
+                return false;
+        }
+        return true;
     }
 
     @Override
     public boolean canProvision(Label label) {
-        return Optional.ofNullable(getTemplate(label)).isPresent();
+        return isNomadAvailable() && !isRestoring() && Optional.ofNullable(getTemplate(label)).isPresent();
+    }
+
+    /**
+     * Whether requests to Nomad are being sent, that is the circuit breaker around the Nomad API is not open.
+     */
+    public boolean isNomadAvailable() {
+        return !nomad.getCircuitBreaker().isOpen();
     }
 
 
     @Extension
     public static final class DescriptorImpl extends Descriptor<Cloud> {
 
+        private static final NomadHttpTransport TEST_TRANSPORT = new NomadHttpTransport();
+
         public DescriptorImpl() {
             load();
         }
@@ -250,19 +1035,26 @@ public class NomadCloud extends AbstractCloudImpl {
         @POST
         public FormValidation doTestConnection(@QueryParameter("nomadUrl") String nomadUrl) {
             Objects.requireNonNull(Jenkins.get()).checkPermission(Jenkins.ADMINISTER);
-            try {
-                Request request = new Request.Builder()
-                        .url(nomadUrl + "/v1//agent/health")
-                        .build();
+            Request request = new Request.Builder()
+                    .url(nomadUrl + "/v1//agent/health")
+                    .build();
 
-                OkHttpClient client = new OkHttpClient();
-                ResponseBody body = client.newCall(request).execute().body();
+            try (ResponseBody body = clientFor(nomadUrl).newCall(request).execute().body()) {
                 return FormValidation.ok(body.string());
             } catch (Exception e) {
                 return FormValidation.error(e.getMessage());
             }
         }
 
+        // The transport of a cloud configured with this URL, or one shared by all connection tests
+        private static OkHttpClient clientFor(String nomadUrl) {
+            for (Cloud cloud : Jenkins.get().clouds) {
+                if (cloud instanceof NomadCloud && nomadUrl.equals(((NomadCloud) cloud).getNomadUrl()))
+                    return ((NomadCloud) cloud).Nomad().getTransport().client();
+            }
+            return TEST_TRANSPORT.client();
+        }
+
         @POST
         public FormValidation doCheckName(@QueryParameter String name) {
             Objects.requireNonNull(Jenkins.get()).checkPermission(Jenkins.ADMINISTER);
@@ -313,8 +1105,32 @@ public class NomadCloud extends AbstractCloudImpl {
         return nomadACLCredentialsId;
     }
 
+    /**
+     * The ACL token of the configured credentials. It is looked up once and then cached until credentials are
+     * saved or the cache expires, since the lookup scans all credentials of Jenkins.
+     */
     public String getNomadACL() {
-        return secretFor(this.getNomadACLCredentialsId());
+        Optional<String> token = nomadACL;
+        if (token == null || System.currentTimeMillis() - nomadACLResolved > ACL_CACHE_MILLIS) {
+            long started = System.nanoTime();
+            token = Optional.ofNullable(secretFor(this.getNomadACLCredentialsId()));
+            nomadACLLookupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.log(Level.FINE, "Looked up the ACL token of cloud " + name + " in " + nomadACLLookupMillis + " ms");
+            nomadACLResolved = System.currentTimeMillis();
+            nomadACL = token;
+        }
+        return token.orElse(null);
+    }
+
+    /**
+     * How long the last lookup of the ACL token took, -1 if it was not looked up yet.
+     */
+    public long getNomadACLLookupMillis() {
+        return nomadACLLookupMillis;
+    }
+
+    void invalidateNomadACL() {
+        nomadACL = null;
     }
 
     private static String secretFor(String credentialsId) {
@@ -334,10 +1150,12 @@ public class NomadCloud extends AbstractCloudImpl {
 
     public void setJenkinsUrl(String jenkinsUrl) {
         this.jenkinsUrl = jenkinsUrl;
+        invalidateJobSkeletons();
     }
 
     public void setSlaveUrl(String slaveUrl) {
         this.slaveUrl = slaveUrl;
+        invalidateJobSkeletons();
     }
 
     public Boolean getPrune() {
@@ -347,6 +1165,34 @@ public class NomadCloud extends AbstractCloudImpl {
         return prune;
     }
 
+    /**
+     * Whether the jobs of terminated agents are purged from Nomad's state instead of left dead until Nomad's
+     * garbage collection removes them.
+     */
+    public boolean getPurgeJobs() {
+        return purgeJobs == null || purgeJobs;
+    }
+
+    @DataBoundSetter
+    public void setPurgeJobs(boolean purgeJobs) {
+        this.purgeJobs = purgeJobs;
+    }
+
+    NomadTerminationQueue getTerminationQueue() {
+        return terminations;
+    }
+
+    NomadLaunchThrottle getLaunchThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Number of job and allocation stops of terminated agents not done yet.
+     */
+    public int getPendingTerminations() {
+        return terminations.getPending();
+    }
+
     public void setWorkerTimeout(String workerTimeout) {
         try {
             this.workerTimeout = Integer.parseInt(workerTimeout);
@@ -355,12 +1201,235 @@ public class NomadCloud extends AbstractCloudImpl {
         }
     }
 
+    // Built on first use, once the data bound setters applied the transport settings
+    private NomadHttpTransport buildTransport() {
+        NomadHttpTransport transport = new NomadHttpTransport(
+                getMaxRequestsPerHost(),
+                getMaxIdleConnections(),
+                getKeepAliveSeconds(),
+                getConnectTimeoutSeconds(),
+                getReadTimeoutSeconds(),
+                getHttp2(),
+                this::getNomadACL
+        );
+        synchronized (TRANSPORTS) {
+            TRANSPORTS.put(this, transport);
+        }
+        return transport;
+    }
+
+    /**
+     * Retires the clouds no longer part of the Jenkins configuration, e.g. the ones a configuration save replaced.
+     */
+    static void retireReplacedClouds() {
+        Map<NomadCloud, NomadHttpTransport> replaced = new HashMap<>();
+        synchronized (TRANSPORTS) {
+            Iterator<Map.Entry<NomadCloud, NomadHttpTransport>> transports = TRANSPORTS.entrySet().iterator();
+            while (transports.hasNext()) {
+                Map.Entry<NomadCloud, NomadHttpTransport> transport = transports.next();
+                if (!Jenkins.get().clouds.contains(transport.getKey())) {
+                    replaced.put(transport.getKey(), transport.getValue());
+                    transports.remove();
+                }
+            }
+        }
+        replaced.forEach(NomadCloud::retire);
+    }
+
+    /**
+     * Stops following Nomad and closes the transport of this replaced cloud once its launches, stops and
+     * evaluations still in flight are done with it.
+     */
+    private void retire(NomadHttpTransport transport) {
+        if (launchesInFlight.get() > 0 || terminations.getPending() > 0 || evaluations.getFollowing() > 0) {
+            Timer.get().schedule(() -> retire(transport), RETIRE_CHECK_SECONDS, TimeUnit.SECONDS);
+            return;
+        }
+
+        synchronized (this) {
+            if (watcher != null)
+                watcher.stop();
+            if (events != null)
+                events.stop();
+        }
+        transport.close();
+        LOGGER.log(Level.FINE, "Retired replaced cloud " + name);
+    }
+
+    private static Integer parsePositive(String value, String setting) {
+        if (Strings.isNullOrEmpty(value))
+            return null;
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : null;
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Failed to parse " + setting + " '" + value + "', using the default");
+            return null;
+        }
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost != null ? maxRequestsPerHost : NomadHttpTransport.DEFAULT_MAX_REQUESTS_PER_HOST;
+    }
+
+    @DataBoundSetter
+    public void setMaxRequestsPerHost(String maxRequestsPerHost) {
+        this.maxRequestsPerHost = parsePositive(maxRequestsPerHost, "max requests per host");
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections != null ? maxIdleConnections : NomadHttpTransport.DEFAULT_MAX_IDLE_CONNECTIONS;
+    }
+
+    @DataBoundSetter
+    public void setMaxIdleConnections(String maxIdleConnections) {
+        this.maxIdleConnections = parsePositive(maxIdleConnections, "max idle connections");
+    }
+
+    public int getKeepAliveSeconds() {
+        return keepAliveSeconds != null ? keepAliveSeconds : NomadHttpTransport.DEFAULT_KEEP_ALIVE_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setKeepAliveSeconds(String keepAliveSeconds) {
+        this.keepAliveSeconds = parsePositive(keepAliveSeconds, "keep-alive");
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds != null ? connectTimeoutSeconds : NomadHttpTransport.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setConnectTimeoutSeconds(String connectTimeoutSeconds) {
+        this.connectTimeoutSeconds = parsePositive(connectTimeoutSeconds, "connect timeout");
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds != null ? readTimeoutSeconds : NomadHttpTransport.DEFAULT_READ_TIMEOUT_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeoutSeconds(String readTimeoutSeconds) {
+        this.readTimeoutSeconds = parsePositive(readTimeoutSeconds, "read timeout");
+    }
+
+    public boolean getHttp2() {
+        return http2 == null || http2;
+    }
+
+    @DataBoundSetter
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * Agents launched per minute at most across all templates of this cloud, 0 for no limit.
+     */
+    public int getLaunchRatePerMinute() {
+        return launchRatePerMinute;
+    }
+
+    @DataBoundSetter
+    public void setLaunchRatePerMinute(String launchRatePerMinute) {
+        Integer parsed = parsePositive(launchRatePerMinute, "launch rate");
+        this.launchRatePerMinute = parsed != null ? parsed : 0;
+    }
+
+    /**
+     * Agents launched at once across all templates of this cloud before the launch rate applies.
+     */
+    public int getLaunchBurst() {
+        return Math.max(1, launchBurst);
+    }
+
+    @DataBoundSetter
+    public void setLaunchBurst(String launchBurst) {
+        Integer parsed = parsePositive(launchBurst, "launch burst");
+        this.launchBurst = parsed != null ? parsed : 0;
+    }
+
+    /**
+     * Agents of this cloud at most, launching or not, across all templates. 0 for no limit.
+     */
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    @DataBoundSetter
+    public void setMaxInstances(String maxInstances) {
+        Integer parsed = parsePositive(maxInstances, "max instances");
+        this.maxInstances = parsed != null ? parsed : 0;
+    }
+
+    /**
+     * Executors of this cloud's agents at most, launching or not, across all templates. 0 for no limit.
+     */
+    public int getMaxExecutors() {
+        return maxExecutors;
+    }
+
+    @DataBoundSetter
+    public void setMaxExecutors(String maxExecutors) {
+        Integer parsed = parsePositive(maxExecutors, "max executors");
+        this.maxExecutors = parsed != null ? parsed : 0;
+    }
+
+    /**
+     * Executors of agents launched ahead of the forecast demand at most, 0 to only launch agents for queued items.
+     */
+    public int getPreProvisionBudget() {
+        return preProvisionBudget;
+    }
+
+    @DataBoundSetter
+    public void setPreProvisionBudget(String preProvisionBudget) {
+        Integer parsed = parsePositive(preProvisionBudget, "pre-provisioning budget");
+        this.preProvisionBudget = parsed != null ? parsed : 0;
+    }
+
+    /**
+     * Executors this cloud may still launch ahead of the demand: its pre-provisioning budget less the idle
+     * executors of all its agents and the executors of its warm pool and pre-provisioning launches in flight.
+     */
+    int getPreProvisionHeadroom() {
+        if (preProvisionBudget <= 0)
+            return 0;
+        return Math.max(0, preProvisionBudget - ledger.snapshot(null).getIdle() - ledger.getLaunchingAhead());
+    }
+
+    /**
+     * Launches waiting for the launch rate limits of this cloud or their template.
+     */
+    public int getQueuedLaunches() {
+        return throttle.getQueued();
+    }
+
+    public int getQueuedLaunches(NomadSlaveTemplate template) {
+        return throttle.getQueued(template);
+    }
+
+    /**
+     * Connection and request statistics of the HTTP transport to Nomad.
+     */
+    public NomadHttpTransport.Stats getHttpStats() {
+        return nomad.getTransport().getStats();
+    }
+
+    private void invalidateJobSkeletons() {
+        if (nomad != null)
+            nomad.invalidateJobSkeletons();
+    }
+
     public void setNomad(NomadApi nomad) {
         this.nomad = nomad;
     }
 
+    /**
+     * Executors of this cloud's agents that are being launched, across all templates.
+     */
     public int getPending() {
-        return pending;
+        NomadCapacityLedger.Snapshot capacity = getCapacity();
+        return capacity.getPending() + capacity.getConnecting();
     }
 
     public String getJenkinsTunnel() {
@@ -369,6 +1438,7 @@ public class NomadCloud extends AbstractCloudImpl {
 
     public void setJenkinsTunnel(String jenkinsTunnel) {
         this.jenkinsTunnel = jenkinsTunnel;
+        invalidateJobSkeletons();
     }
 
     public List<NomadSlaveTemplate> getTemplates() {
@@ -0,0 +1,448 @@
+package org.jenkinsci.plugins.nomad;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A cached model of the free resources on the client nodes of a cloud's Nomad cluster, per region. It is built
+ * from the ready and eligible nodes and the resources of their pending and running allocations, and refreshed in
+ * the background once it is older than the refresh interval. The node list carries the nodes' resources, each node
+ * is only read on its own when a template's constraints need its attributes or meta data.
+ *
+ * Agents are placed on the model greedily, on nodes in the template's datacenters that satisfy its driver and
+ * constraints. Placed agents use up the model's resources until the next refresh, by which time Nomad has
+ * allocated them, unless their launch fails first and gives them back. Constraints the model cannot evaluate are
+ * assumed to be satisfied.
+ */
+final class NomadClusterCapacity {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadClusterCapacity.class.getName());
+
+    static final long REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(
+            Integer.getInteger(NomadClusterCapacity.class.getName() + ".refreshSeconds", 30));
+
+    private final NomadCloud cloud;
+
+    private final ConcurrentMap<String, Region> regions = new ConcurrentHashMap<>();
+
+    NomadClusterCapacity(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Places one agent of the template on the model. Returns null if no node has room for it, and otherwise the
+     * placement, which holds no node if the capacity of the region is not known yet.
+     */
+    Placement place(NomadSlaveTemplate template) {
+        Region region = regions.computeIfAbsent(StringUtils.defaultString(template.getRegion()), Region::new);
+        region.refreshIfStale();
+        return region.place(template);
+    }
+
+    /**
+     * Gives the resources of a placed agent whose launch failed back to the model, unless it was refreshed since.
+     */
+    void release(Placement placement) {
+        if (placement.node != null)
+            placement.region.release(placement);
+    }
+
+    /**
+     * Where an agent was placed on the model.
+     */
+    static final class Placement {
+        private final Region region;
+        private final NodeCapacity node;
+        private final NomadSlaveTemplate template;
+
+        private Placement(Region region, NodeCapacity node, NomadSlaveTemplate template) {
+            this.region = region;
+            this.node = node;
+            this.template = template;
+        }
+    }
+
+    private final class Region {
+        private final String name;
+
+        // Node details by node ID, read again only when the node's modify index changes
+        private final ConcurrentMap<String, JsonObject> nodeDetails = new ConcurrentHashMap<>();
+
+        // Guarded by this, null until the first refresh completed
+        private List<NodeCapacity> nodes;
+        private long refreshed;
+        private boolean refreshing;
+
+        Region(String name) {
+            this.name = name;
+        }
+
+        synchronized Placement place(NomadSlaveTemplate template) {
+            if (nodes == null)
+                return new Placement(this, null, template);
+
+            for (NodeCapacity node : nodes) {
+                if (node.fits(template) && node.matches(template)) {
+                    node.take(template);
+                    return new Placement(this, node, template);
+                }
+            }
+            return null;
+        }
+
+        synchronized void release(Placement placement) {
+            // A refreshed model no longer holds the node the agent was placed on
+            if (nodes != null && nodes.contains(placement.node))
+                placement.node.give(placement.template);
+        }
+
+        synchronized void refreshIfStale() {
+            if (refreshing || System.currentTimeMillis() - refreshed < REFRESH_MILLIS)
+                return;
+            refreshing = true;
+
+            NomadApi nomad = cloud.Nomad();
+            boolean detailed = needsNodeDetails();
+            CompletableFuture<List<NodeCapacity>> readyNodes = nomad.getNodes(name).thenCompose(stubs -> {
+                List<CompletableFuture<NodeCapacity>> details = new ArrayList<>();
+                for (JsonElement element : stubs) {
+                    JsonObject stub = element.getAsJsonObject();
+                    if (!"ready".equals(string(stub, "Status")) || "ineligible".equals(string(stub, "SchedulingEligibility"))
+                            || "true".equals(string(stub, "Drain")))
+                        continue;
+                    // Nomad before 0.12 lists nodes without their resources
+                    if (detailed || object(stub, "NodeResources") == null)
+                        details.add(detail(nomad, stub).thenApply(node -> new NodeCapacity(node, true)));
+                    else
+                        details.add(CompletableFuture.completedFuture(new NodeCapacity(stub, false)));
+                }
+                return CompletableFuture.allOf(details.toArray(new CompletableFuture[0])).thenApply(v -> {
+                    List<NodeCapacity> ready = new ArrayList<>();
+                    details.forEach(d -> ready.add(d.join()));
+                    return ready;
+                });
+            });
+
+            readyNodes.thenCombine(nomad.getAllocationResources(name), this::model).whenComplete((model, e) -> {
+                synchronized (this) {
+                    refreshing = false;
+                    if (e != null) {
+                        LOGGER.log(Level.WARNING, "Failed to read the cluster capacity of cloud " + cloud.getName()
+                                + (name.isEmpty() ? "" : " in region " + name), NomadApi.unwrap(e));
+                        return;
+                    }
+                    nodes = model;
+                    refreshed = System.currentTimeMillis();
+                }
+            });
+        }
+
+        private CompletableFuture<JsonObject> detail(NomadApi nomad, JsonObject stub) {
+            String id = string(stub, "ID");
+            JsonObject known = nodeDetails.get(id);
+            if (known != null && string(known, "ModifyIndex").equals(string(stub, "ModifyIndex")))
+                return CompletableFuture.completedFuture(known);
+
+            return nomad.getNode(id, name).thenApply(node -> {
+                nodeDetails.put(id, node);
+                return node;
+            });
+        }
+
+        // Whether a template of the region has constraints on node attributes or meta data, which only the
+        // nodes read on their own carry
+        private boolean needsNodeDetails() {
+            for (NomadSlaveTemplate template : cloud.getTemplates()) {
+                if (!name.equals(StringUtils.defaultString(template.getRegion())))
+                    continue;
+                for (NomadConstraintTemplate constraint : template.getConstraints()) {
+                    String target = StringUtils.trimToEmpty(constraint.getLtarget());
+                    if (target.startsWith("${attr.") || target.startsWith("${meta."))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private List<NodeCapacity> model(List<NodeCapacity> readyNodes, JsonArray allocations) {
+            Map<String, NodeCapacity> byId = new HashMap<>();
+            for (NodeCapacity node : readyNodes) {
+                byId.put(node.id, node);
+            }
+            nodeDetails.keySet().retainAll(byId.keySet());
+
+            for (JsonElement element : allocations) {
+                JsonObject allocation = element.getAsJsonObject();
+                String status = string(allocation, "ClientStatus");
+                NodeCapacity node = byId.get(string(allocation, "NodeID"));
+                if (node != null && ("pending".equals(status) || "running".equals(status)))
+                    node.allocate(allocation);
+            }
+            return new ArrayList<>(byId.values());
+        }
+    }
+
+    /**
+     * The free resources of one client node, along with what constraints are matched against.
+     */
+    static final class NodeCapacity {
+        private final String id;
+        private final String name;
+        private final String datacenter;
+        private final String nodeClass;
+        private final Map<String, String> attributes;
+        private final Map<String, String> meta;
+        private final Set<String> drivers;
+
+        // Whether the node was read on its own, rather than listed without its attributes and meta data
+        private final boolean detailed;
+
+        private long cpu;
+        private long memory;
+        private long disk;
+
+        NodeCapacity(JsonObject node) {
+            this(node, true);
+        }
+
+        NodeCapacity(JsonObject node, boolean detailed) {
+            this.detailed = detailed;
+            id = string(node, "ID");
+            name = string(node, "Name");
+            datacenter = string(node, "Datacenter");
+            nodeClass = string(node, "NodeClass");
+            attributes = strings(object(node, "Attributes"));
+            meta = strings(object(node, "Meta"));
+            drivers = new HashSet<>();
+            JsonObject driverInfo = object(node, "Drivers");
+            if (driverInfo != null) {
+                for (Map.Entry<String, JsonElement> driver : driverInfo.entrySet()) {
+                    if ("true".equals(string(driver.getValue().getAsJsonObject(), "Detected")))
+                        drivers.add(driver.getKey());
+                }
+            }
+
+            JsonObject resources = object(node, "NodeResources");
+            JsonObject reserved = object(node, "ReservedResources");
+            if (resources != null) {
+                cpu = number(resources, "Cpu", "CpuShares") - number(reserved, "Cpu", "CpuShares");
+                memory = number(resources, "Memory", "MemoryMB") - number(reserved, "Memory", "MemoryMB");
+                disk = number(resources, "Disk", "DiskMB") - number(reserved, "Disk", "DiskMB");
+            } else {
+                // Nomad before 0.9
+                cpu = number(node, "Resources", "CPU") - number(node, "Reserved", "CPU");
+                memory = number(node, "Resources", "MemoryMB") - number(node, "Reserved", "MemoryMB");
+                disk = number(node, "Resources", "DiskMB") - number(node, "Reserved", "DiskMB");
+            }
+        }
+
+        void allocate(JsonObject allocation) {
+            JsonObject allocated = object(allocation, "AllocatedResources");
+            if (allocated == null) {
+                cpu -= number(allocation, "Resources", "CPU");
+                memory -= number(allocation, "Resources", "MemoryMB");
+                disk -= number(allocation, "Resources", "DiskMB");
+                return;
+            }
+
+            JsonObject tasks = object(allocated, "Tasks");
+            if (tasks != null) {
+                for (Map.Entry<String, JsonElement> task : tasks.entrySet()) {
+                    JsonObject taskResources = task.getValue().getAsJsonObject();
+                    cpu -= number(taskResources, "Cpu", "CpuShares");
+                    memory -= number(taskResources, "Memory", "MemoryMB");
+                }
+            }
+            disk -= number(allocated, "Shared", "DiskMB");
+        }
+
+        boolean fits(NomadSlaveTemplate template) {
+            return cpu >= template.getCpu() && memory >= template.getMemory() && disk >= template.getDisk();
+        }
+
+        void take(NomadSlaveTemplate template) {
+            cpu -= template.getCpu();
+            memory -= template.getMemory();
+            disk -= template.getDisk();
+        }
+
+        void give(NomadSlaveTemplate template) {
+            cpu += template.getCpu();
+            memory += template.getMemory();
+            disk += template.getDisk();
+        }
+
+        boolean matches(NomadSlaveTemplate template) {
+            if (!inDatacenters(template.getDatacenters()))
+                return false;
+
+            String driver = template.getDriver();
+            if (StringUtils.isNotEmpty(driver)) {
+                if (!drivers.isEmpty() ? !drivers.contains(driver) : !attributes.isEmpty() && !attributes.containsKey("driver." + driver))
+                    return false;
+            }
+
+            for (NomadConstraintTemplate constraint : template.getConstraints()) {
+                if (!satisfies(constraint))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean inDatacenters(String datacenters) {
+            if (StringUtils.isBlank(datacenters))
+                return true;
+
+            for (String wanted : datacenters.split(",")) {
+                wanted = wanted.trim();
+                if (wanted.equals(datacenter) || (wanted.contains("*") && datacenter.matches("\\Q" + wanted.replace("*", "\\E.*\\Q") + "\\E")))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean satisfies(NomadConstraintTemplate constraint) {
+            String operand = StringUtils.defaultIfEmpty(constraint.getOperand(), "=");
+            String target = StringUtils.trimToEmpty(constraint.getLtarget());
+            String expected = StringUtils.trimToEmpty(constraint.getRtarget());
+
+            if (!target.startsWith("${") || !target.endsWith("}"))
+                return true;
+            String property = target.substring(2, target.length() - 1);
+            if (!isKnown(property) || (!detailed && (property.startsWith("attr.") || property.startsWith("meta."))))
+                return true;
+            String value = resolve(property);
+
+            switch (operand) {
+                case "=":
+                case "==":
+                case "is":
+                    return expected.equals(value);
+                case "!=":
+                case "not":
+                    return !expected.equals(value);
+                case "is_set":
+                    return value != null;
+                case "is_not_set":
+                    return value == null;
+                case "regexp":
+                    try {
+                        return value != null && Pattern.compile(expected).matcher(value).find();
+                    } catch (PatternSyntaxException e) {
+                        return true;
+                    }
+                case "set_contains":
+                case "set_contains_all":
+                    return value != null && set(value).containsAll(set(expected));
+                case "set_contains_any":
+                    return value != null && !Collections.disjoint(set(value), set(expected));
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return value != null && compare(operand, value, expected);
+                default:
+                    // Versions, distinct hosts and properties are left to Nomad
+                    return true;
+            }
+        }
+
+        private static boolean isKnown(String property) {
+            return property.startsWith("attr.") || property.startsWith("meta.") || property.equals("node.datacenter")
+                    || property.equals("node.class") || property.equals("node.unique.name") || property.equals("node.unique.id");
+        }
+
+        private String resolve(String property) {
+            if (property.startsWith("attr."))
+                return attributes.get(property.substring("attr.".length()));
+            if (property.startsWith("meta."))
+                return meta.get(property.substring("meta.".length()));
+            switch (property) {
+                case "node.datacenter":
+                    return datacenter;
+                case "node.class":
+                    return nodeClass;
+                case "node.unique.name":
+                    return name;
+                default:
+                    return id;
+            }
+        }
+
+        private static boolean compare(String operand, String value, String expected) {
+            int comparison;
+            try {
+                comparison = Double.compare(Double.parseDouble(value), Double.parseDouble(expected));
+            } catch (NumberFormatException e) {
+                comparison = value.compareTo(expected);
+            }
+            switch (operand) {
+                case "<":
+                    return comparison < 0;
+                case "<=":
+                    return comparison <= 0;
+                case ">":
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+
+        private static List<String> set(String values) {
+            List<String> set = new ArrayList<>();
+            for (String value : values.split(",")) {
+                set.add(value.trim());
+            }
+            return set;
+        }
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object == null ? null : object.get(name);
+        if (element == null || element.isJsonNull())
+            return "";
+        return element.getAsString();
+    }
+
+    private static JsonObject object(JsonObject object, String name) {
+        JsonElement element = object == null ? null : object.get(name);
+        return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+    }
+
+    private static long number(JsonObject object, String group, String name) {
+        JsonObject inner = object(object, group);
+        JsonElement element = inner == null ? null : inner.get(name);
+        if (element == null || element.isJsonNull())
+            return 0;
+        return element.getAsLong();
+    }
+
+    private static Map<String, String> strings(JsonObject object) {
+        Map<String, String> strings = new HashMap<>();
+        if (object == null)
+            return strings;
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            if (!entry.getValue().isJsonNull())
+                strings.put(entry.getKey(), entry.getValue().getAsString());
+        }
+        return strings;
+    }
+}
@@ -25,6 +25,11 @@ public class NomadComputer extends AbstractCloudComputer<NomadSlave> {
         if (!reusable) {
             setAcceptingTasks(false);
         }
+
+        NomadSlave slave = getNode();
+        if (slave != null) {
+            NomadWarmPool.consumed(slave);
+        }
         LOGGER.log(Level.INFO, " Computer " + this + ": task accepted");
     }
 
@@ -32,6 +37,9 @@ public class NomadComputer extends AbstractCloudComputer<NomadSlave> {
     public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
         super.taskCompleted(executor, task, durationMS);
         LOGGER.log(Level.INFO, " Computer " + this + ": task completed");
+        if (!reusable) {
+            NomadRecycler.taskCompleted(this);
+        }
     }
 
     @Override
@@ -40,6 +48,22 @@ public class NomadComputer extends AbstractCloudComputer<NomadSlave> {
         LOGGER.log(Level.WARNING, " Computer " + this + " task completed with problems");
     }
 
+    /**
+     * Whether this idle agent is part of its template's warm pool and should survive the idle timeout.
+     */
+    boolean isHeldByWarmPool() {
+        NomadSlave slave = getNode();
+        if (slave == null || !isIdle())
+            return false;
+
+        NomadSlaveTemplate template = slave.getTemplate();
+        NomadCloud cloud = slave.getCloud();
+        if (template == null || cloud == null || template.getMinIdle() <= 0)
+            return false;
+
+        return cloud.getIdleComputers(template).size() <= template.getMinIdle();
+    }
+
     @Override
     public String toString() {
         return String.format("%s (slave: %s)", getName(), getNode());
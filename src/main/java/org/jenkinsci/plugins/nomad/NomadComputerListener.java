@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Completes the launches waiting for a Nomad agent once its computer comes online, so no thread has to wait
+ * for the connection.
+ */
+@Extension
+public class NomadComputerListener extends ComputerListener {
+
+    private static final ConcurrentMap<String, CompletableFuture<Void>> EXPECTED = new ConcurrentHashMap<>();
+
+    /**
+     * A future completed when the computer of the named agent comes online. Callers must {@link #forget} it
+     * once they are done waiting.
+     */
+    static CompletableFuture<Void> expect(NomadSlave slave) {
+        CompletableFuture<Void> online = EXPECTED.computeIfAbsent(slave.getNodeName(), n -> new CompletableFuture<>());
+
+        // The agent may have connected before we started to listen
+        Computer computer = slave.toComputer();
+        if (computer != null && computer.isOnline())
+            online.complete(null);
+        return online;
+    }
+
+    static void forget(NomadSlave slave, CompletableFuture<Void> online) {
+        EXPECTED.remove(slave.getNodeName(), online);
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        if (!(c instanceof NomadComputer))
+            return;
+
+        CompletableFuture<Void> online = EXPECTED.get(c.getName());
+        if (online != null)
+            online.complete(null);
+    }
+}
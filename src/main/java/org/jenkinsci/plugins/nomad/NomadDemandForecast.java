@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.nomad;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forecasts the executor demand of labels from the load the NodeProvisioner reports, that is queued items
+ * plus busy executors.
+ *
+ * Two estimates are kept per label. A smoothed level with a trend follows the current demand and catches
+ * rising bursts. A peak per quarter of an hour of the day, averaged over the days, catches recurring peaks
+ * such as nightly builds before they start. The forecast is the larger of the two.
+ */
+final class NomadDemandForecast {
+
+    static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    static final int SLOTS = (int) (TimeUnit.DAYS.toMillis(1) / SLOT_MILLIS);
+
+    // Weights of the newest observation in the level and trend, and of the newest day in the peaks
+    static final double LEVEL_ALPHA = 0.3;
+    static final double TREND_BETA = 0.1;
+    static final double PEAK_ALPHA = 0.5;
+
+    private final ZoneId zone;
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+
+    NomadDemandForecast() {
+        this(ZoneId.systemDefault());
+    }
+
+    NomadDemandForecast(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    void record(String label, int demand, long now) {
+        series.computeIfAbsent(label, l -> new Series()).record(demand, now, slot(now));
+    }
+
+    /**
+     * The demand expected for the label the given time from now, or 0 if nothing was recorded for it.
+     */
+    double predict(String label, long leadMillis, long now) {
+        Series labelSeries = series.get(label);
+        if (labelSeries == null)
+            return 0;
+        return labelSeries.predict(leadMillis, slot(now + leadMillis));
+    }
+
+    private int slot(long time) {
+        LocalTime local = Instant.ofEpochMilli(time).atZone(zone).toLocalTime();
+        return (int) (TimeUnit.SECONDS.toMillis(local.toSecondOfDay()) / SLOT_MILLIS);
+    }
+
+    private static final class Series {
+        private double level = -1;
+        // Change of the level per millisecond
+        private double trend;
+        private long updated;
+
+        // Peak demand per slot, averaged over the past days, and the peak of the slot in progress
+        private final double[] peaks = new double[SLOTS];
+        private int slot = -1;
+        private double slotPeak;
+
+        Series() {
+            Arrays.fill(peaks, -1);
+        }
+
+        synchronized void record(int demand, long now, int currentSlot) {
+            if (level < 0) {
+                level = demand;
+            } else if (now > updated) {
+                double previous = level;
+                level = LEVEL_ALPHA * demand + (1 - LEVEL_ALPHA) * (level + trend * (now - updated));
+                trend = TREND_BETA * (level - previous) / (now - updated) + (1 - TREND_BETA) * trend;
+            }
+            updated = now;
+
+            if (currentSlot != slot) {
+                closeSlot();
+                slot = currentSlot;
+                slotPeak = 0;
+            }
+            slotPeak = Math.max(slotPeak, demand);
+        }
+
+        private void closeSlot() {
+            if (slot < 0)
+                return;
+            peaks[slot] = peaks[slot] < 0 ? slotPeak : PEAK_ALPHA * slotPeak + (1 - PEAK_ALPHA) * peaks[slot];
+        }
+
+        synchronized double predict(long leadMillis, int targetSlot) {
+            double trending = level < 0 ? 0 : level + Math.max(0, trend) * leadMillis;
+            return Math.max(trending, peaks[targetSlot]);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.nomad;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the evaluations Nomad creates when agent jobs are registered or dispatched, with blocking queries,
+ * until the scheduler has decided on them. Launches whose allocations could not be placed are failed right away
+ * with the scheduler's reasons instead of running into the worker timeout.
+ *
+ * All agents of a batch job share one evaluation, which is followed only once.
+ */
+final class NomadEvaluations {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadEvaluations.class.getName());
+
+    // How long one blocking query for an evaluation waits for it to change
+    static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final NomadCloud cloud;
+
+    private final ConcurrentMap<String, CompletableFuture<String>> following = new ConcurrentHashMap<>();
+
+    NomadEvaluations(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Follows the evaluation of the given job and fails the job's launches if it turns out they cannot be placed.
+     */
+    void follow(String jobId, String evalId) {
+        if (evalId == null || evalId.isEmpty())
+            return;
+
+        following.computeIfAbsent(evalId, id -> {
+            CompletableFuture<String> outcome = new CompletableFuture<>();
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cloud.getLaunchTimeoutCeilingSeconds());
+            poll(evalId, 0, deadline, outcome);
+            outcome.whenComplete((reason, e) -> {
+                following.remove(evalId);
+                if (e != null) {
+                    LOGGER.log(Level.FINE, "Stopped following evaluation " + evalId + " of job " + jobId, NomadApi.unwrap(e));
+                } else if (reason != null) {
+                    LOGGER.log(Level.WARNING, "Nomad could not place job " + jobId + ": " + reason);
+                    cloud.placementFailed(jobId, reason);
+                }
+            });
+            return outcome;
+        });
+    }
+
+    /**
+     * Number of evaluations followed.
+     */
+    int getFollowing() {
+        return following.size();
+    }
+
+    private void poll(String evalId, long index, long deadline, CompletableFuture<String> outcome) {
+        if (System.currentTimeMillis() > deadline) {
+            // Left to the worker timeout
+            outcome.complete(null);
+            return;
+        }
+
+        cloud.Nomad().getEvaluation(evalId, index, WAIT_MILLIS).whenComplete((evaluation, e) -> {
+            if (e != null) {
+                outcome.completeExceptionally(e);
+                return;
+            }
+
+            String status = string(evaluation, "Status");
+            if ("pending".equals(status)) {
+                JsonElement modifyIndex = evaluation.get("ModifyIndex");
+                poll(evalId, Math.max(index + 1, modifyIndex == null ? 0 : modifyIndex.getAsLong()), deadline, outcome);
+                return;
+            }
+            outcome.complete(failure(evaluation));
+        });
+    }
+
+    /**
+     * Why the evaluation could not place all allocations, or null if it placed them.
+     */
+    static String failure(JsonObject evaluation) {
+        String status = string(evaluation, "Status");
+        JsonElement failedTGAllocs = evaluation.get("FailedTGAllocs");
+        String failures = failedTGAllocs != null && failedTGAllocs.isJsonObject()
+                ? NomadEventStream.describeFailedAllocations(failedTGAllocs.getAsJsonObject()) : "";
+
+        if ("complete".equals(status) && failures.isEmpty())
+            return null;
+
+        String reason = "Evaluation " + string(evaluation, "ID") + " is " + status;
+        if (!string(evaluation, "StatusDescription").isEmpty())
+            reason += " (" + string(evaluation, "StatusDescription") + ")";
+        if (!failures.isEmpty())
+            reason += ": " + failures;
+        return reason;
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull())
+            return "";
+        return element.getAsString();
+    }
+}
@@ -0,0 +1,348 @@
+package org.jenkinsci.plugins.nomad;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import jenkins.model.Jenkins;
+import okhttp3.Response;
+import org.jenkinsci.plugins.nomad.Api.AllocationInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows Nomad's event stream for the jobs of a cloud and fails pending launches as soon as Nomad reports that
+ * they cannot come up: a blocked or failed evaluation, a failed allocation, a dead task or a deregistered job.
+ * Restarted tasks and failed allocations Nomad reschedules extend their launches instead.
+ *
+ * The stream starts at the latest index known when it is first opened, as Nomad would otherwise replay its whole
+ * event buffer, and resumes after the last index seen when it reconnects.
+ *
+ * The thread ends once its cloud is no longer part of the Jenkins configuration.
+ */
+final class NomadEventStream implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadEventStream.class.getName());
+
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final NomadCloud cloud;
+    private final List<String> prefixes;
+
+    private final JsonParser parser = new JsonParser();
+
+    private volatile long index;
+    private volatile boolean stopped;
+
+    NomadEventStream(NomadCloud cloud, List<String> prefixes) {
+        this.cloud = cloud;
+        this.prefixes = prefixes;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "Nomad event stream for " + cloud.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        while (!stopped && isConfigured()) {
+            try {
+                if (index == 0)
+                    index = latestIndex();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to get the latest Nomad index of cloud " + cloud.getName() + ", retrying", e);
+                if (!pause())
+                    return;
+                continue;
+            }
+
+            try (Response response = cloud.Nomad().openEventStream(index)) {
+                JsonReader reader = new JsonReader(response.body().charStream());
+                reader.setLenient(true);
+
+                while (!stopped && reader.peek() != JsonToken.END_DOCUMENT) {
+                    readFrame(reader);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Nomad event stream of cloud " + cloud.getName() + " broke off, reconnecting", e);
+                if (!pause())
+                    return;
+            }
+        }
+        LOGGER.log(Level.FINE, "Stopped following Nomad events of cloud " + cloud.getName());
+    }
+
+    // The index of the job mirror, or the one Nomad answers a non-blocking job list with while the mirror is not synced
+    private long latestIndex() throws IOException {
+        long known = cloud.getJobWatcher().getIndex();
+        if (known > 0 || prefixes.isEmpty())
+            return known;
+        return cloud.Nomad().watchJobs(prefixes.get(0), 0).index;
+    }
+
+    // Whether to go on after waiting before the next attempt
+    private static boolean pause() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Heartbeats are empty objects
+    private void readFrame(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Index":
+                    index = reader.nextLong();
+                    break;
+                case "Events":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readEvent(reader);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads one event, skipping the payload of events about other jobs without building it. Nomad filters topics
+     * by exact keys only, so the stream cannot be narrowed to the jobs of this cloud's templates, but events name
+     * their job ahead of their payload: jobs by key, evaluations and allocations by filter key.
+     */
+    private void readEvent(JsonReader reader) throws IOException {
+        String topic = "";
+        String type = "";
+        List<String> keys = new ArrayList<>();
+        JsonObject payload = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Topic":
+                    topic = nextString(reader);
+                    break;
+                case "Type":
+                    type = nextString(reader);
+                    break;
+                case "Key":
+                    keys.add(nextString(reader));
+                    break;
+                case "FilterKeys":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        break;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        keys.add(nextString(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "Payload":
+                    // Without a topic read yet the payload is read, and its job checked once handled
+                    if (topic.isEmpty() || isOwnJob(keys)) {
+                        JsonElement element = parser.parse(reader);
+                        payload = element.isJsonObject() ? element.getAsJsonObject() : null;
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (payload == null)
+            return;
+
+        switch (topic) {
+            case "Evaluation":
+                handleEvaluation(payload.getAsJsonObject("Evaluation"));
+                break;
+            case "Allocation":
+                handleAllocation(payload.getAsJsonObject("Allocation"));
+                break;
+            case "Job":
+                if ("JobDeregistered".equals(type))
+                    handleDeregistration(payload.getAsJsonObject("Job"));
+                break;
+            default:
+        }
+    }
+
+    private boolean isOwnJob(List<String> keys) {
+        for (String key : keys) {
+            if (isOwnJob(key))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isOwnJob(String jobId) {
+        for (String prefix : prefixes) {
+            if (jobId.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        return reader.nextString();
+    }
+
+    private void handleEvaluation(JsonObject evaluation) {
+        if (evaluation == null)
+            return;
+
+        String jobId = string(evaluation, "JobID");
+        if (!isOwnJob(jobId))
+            return;
+
+        String status = string(evaluation, "Status");
+        String failures = describeFailedAllocations(evaluation.getAsJsonObject("FailedTGAllocs"));
+
+        if ("blocked".equals(status) || "failed".equals(status) || !failures.isEmpty()) {
+            String reason = "Evaluation " + string(evaluation, "ID") + " is " + status;
+            if (!string(evaluation, "StatusDescription").isEmpty())
+                reason += " (" + string(evaluation, "StatusDescription") + ")";
+            if (!failures.isEmpty())
+                reason += ": " + failures;
+            cloud.placementFailed(jobId, reason);
+        }
+    }
+
+    private void handleAllocation(JsonObject allocation) {
+        if (allocation == null)
+            return;
+
+        String jobId = string(allocation, "JobID");
+        if (!isOwnJob(jobId))
+            return;
+
+        int allocIndex = new AllocationInfo(null, string(allocation, "Name"), jobId, null, null).getIndex();
+
+        String allocId = string(allocation, "ID");
+        Integer launchIndex = allocIndex < 0 ? null : allocIndex;
+
+        String deadTask = null;
+        int restarts = 0;
+        JsonObject taskStates = allocation.getAsJsonObject("TaskStates");
+        if (taskStates != null) {
+            for (Map.Entry<String, JsonElement> task : taskStates.entrySet()) {
+                JsonObject state = task.getValue().getAsJsonObject();
+                if (state.has("Restarts"))
+                    restarts += state.get("Restarts").getAsInt();
+                if (deadTask == null && "dead".equals(string(state, "State")) && state.has("Failed") && state.get("Failed").getAsBoolean())
+                    deadTask = task.getKey() + ": " + lastTaskEvent(state);
+            }
+        }
+
+        // Nomad restarted the agent's task in place, which only takes the restart delay
+        if (restarts > 0)
+            cloud.launchRestarted(jobId, launchIndex, allocId, restarts);
+
+        if ("failed".equals(string(allocation, "ClientStatus")) || deadTask != null) {
+            // A replacement allocation with the same name takes over the launch
+            if (cloud.launchRescheduled(jobId, launchIndex, allocId))
+                return;
+
+            String reason = "Allocation " + allocId + " failed";
+            if (deadTask != null)
+                reason += ", task " + deadTask;
+            else if (!string(allocation, "ClientDescription").isEmpty())
+                reason += ": " + string(allocation, "ClientDescription");
+            cloud.launchFailed(jobId, launchIndex, reason);
+        }
+    }
+
+    private void handleDeregistration(JsonObject job) {
+        if (job == null)
+            return;
+
+        String jobId = string(job, "ID");
+        if (isOwnJob(jobId))
+            cloud.launchFailed(jobId, null, "Job " + jobId + " was deregistered");
+    }
+
+    // Summarizes why the scheduler could not place a task group, e.g. "jenkins-slave-taskgroup: constraint ${attr.kernel.name} = linux filtered 3 nodes"
+    static String describeFailedAllocations(JsonObject failedTGAllocs) {
+        if (failedTGAllocs == null)
+            return "";
+
+        List<String> groups = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> group : failedTGAllocs.entrySet()) {
+            JsonObject metric = group.getValue().getAsJsonObject();
+            List<String> causes = new ArrayList<>();
+
+            JsonObject constraints = metric.getAsJsonObject("ConstraintFiltered");
+            if (constraints != null) {
+                for (Map.Entry<String, JsonElement> constraint : constraints.entrySet()) {
+                    causes.add("constraint " + constraint.getKey() + " filtered " + constraint.getValue().getAsInt() + " nodes");
+                }
+            }
+
+            JsonObject dimensions = metric.getAsJsonObject("DimensionExhausted");
+            if (dimensions != null) {
+                for (Map.Entry<String, JsonElement> dimension : dimensions.entrySet()) {
+                    causes.add(dimension.getKey() + " exhausted on " + dimension.getValue().getAsInt() + " nodes");
+                }
+            }
+
+            if (causes.isEmpty() && metric.has("NodesEvaluated"))
+                causes.add(metric.get("NodesEvaluated").getAsInt() + " nodes evaluated");
+
+            groups.add(group.getKey() + ": " + String.join(", ", causes));
+        }
+        return String.join("; ", groups);
+    }
+
+    private static String lastTaskEvent(JsonObject state) {
+        JsonArray events = state.getAsJsonArray("Events");
+        if (events == null || events.size() == 0)
+            return "dead";
+
+        JsonObject last = events.get(events.size() - 1).getAsJsonObject();
+        String message = string(last, "DisplayMessage");
+        return message.isEmpty() ? string(last, "Type") : message;
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull())
+            return "";
+        return element.getAsString();
+    }
+
+    private boolean isConfigured() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null && jenkins.clouds.contains(cloud);
+    }
+}
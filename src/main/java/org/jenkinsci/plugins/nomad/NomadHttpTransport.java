@@ -0,0 +1,201 @@
+package org.jenkinsci.plugins.nomad;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The HTTP clients a cloud talks to Nomad with. Requests, blocking queries and the event stream share one
+ * dispatcher and one connection pool, and differ only in their read timeouts.
+ *
+ * Responses are gzip-compressed whenever Nomad supports it, OkHttp asks for and inflates them transparently.
+ * Every request carries the cloud's ACL token, if it has one.
+ */
+final class NomadHttpTransport {
+
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS = 16;
+    static final int DEFAULT_KEEP_ALIVE_SECONDS = 300;
+    static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    static final int DEFAULT_READ_TIMEOUT_SECONDS = 30;
+
+    // Longest a blocking query is held open by Nomad, which adds up to wait/16 of jitter on top
+    static final long WATCH_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final OkHttpClient client;
+    private final OkHttpClient watchClient;
+    private final OkHttpClient streamClient;
+
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectsStarted = new AtomicLong();
+
+    NomadHttpTransport() {
+        this(DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_SECONDS,
+                DEFAULT_CONNECT_TIMEOUT_SECONDS, DEFAULT_READ_TIMEOUT_SECONDS, true, () -> null);
+    }
+
+    NomadHttpTransport(int maxRequestsPerHost, int maxIdleConnections, int keepAliveSeconds,
+                       int connectTimeoutSeconds, int readTimeoutSeconds, boolean http2, Supplier<String> token) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxRequestsPerHost));
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        // HTTP/2 is negotiated through ALPN, so it only applies to Nomad servers reached over TLS
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .protocols(http2
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .addInterceptor(new TokenInterceptor(token))
+                .eventListener(new EventListener() {
+                    @Override
+                    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                        connectsStarted.incrementAndGet();
+                    }
+
+                    @Override
+                    public void connectionAcquired(Call call, Connection connection) {
+                        connectionsAcquired.incrementAndGet();
+                    }
+                })
+                .build();
+
+        watchClient = client.newBuilder()
+                .readTimeout(WATCH_WAIT_MILLIS + WATCH_WAIT_MILLIS / 16 + TimeUnit.SECONDS.toMillis(30), TimeUnit.MILLISECONDS)
+                .build();
+
+        // Nomad sends a heartbeat on the event stream every 10 seconds
+        streamClient = client.newBuilder()
+                .readTimeout(1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    OkHttpClient client() {
+        return client;
+    }
+
+    OkHttpClient watchClient() {
+        return watchClient;
+    }
+
+    OkHttpClient streamClient() {
+        return streamClient;
+    }
+
+    /**
+     * Releases the transport's threads and idle connections. Requests in flight still finish, new ones are refused.
+     */
+    void close() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    Stats getStats() {
+        long acquired = connectionsAcquired.get();
+        return new Stats(
+                client.connectionPool().connectionCount(),
+                client.connectionPool().idleConnectionCount(),
+                client.dispatcher().runningCallsCount(),
+                client.dispatcher().queuedCallsCount(),
+                acquired,
+                Math.max(0, acquired - connectsStarted.get())
+        );
+    }
+
+    /**
+     * Adds the ACL token to requests, as resolved when each request is sent.
+     */
+    static final class TokenInterceptor implements Interceptor {
+        private final Supplier<String> token;
+
+        TokenInterceptor(Supplier<String> token) {
+            this.token = token;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            String value = token.get();
+            if (StringUtils.isEmpty(value) || request.header("X-Nomad-Token") != null)
+                return chain.proceed(request);
+
+            return chain.proceed(request.newBuilder().header("X-Nomad-Token", value).build());
+        }
+    }
+
+    /**
+     * A snapshot of the transport's connections and requests.
+     */
+    public static final class Stats {
+        private final int connections;
+        private final int idleConnections;
+        private final int runningRequests;
+        private final int queuedRequests;
+        private final long connectionsAcquired;
+        private final long poolHits;
+
+        Stats(int connections, int idleConnections, int runningRequests, int queuedRequests, long connectionsAcquired, long poolHits) {
+            this.connections = connections;
+            this.idleConnections = idleConnections;
+            this.runningRequests = runningRequests;
+            this.queuedRequests = queuedRequests;
+            this.connectionsAcquired = connectionsAcquired;
+            this.poolHits = poolHits;
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        public int getRunningRequests() {
+            return runningRequests;
+        }
+
+        public int getQueuedRequests() {
+            return queuedRequests;
+        }
+
+        public long getConnectionsAcquired() {
+            return connectionsAcquired;
+        }
+
+        /**
+         * Connections that were reused from the pool instead of being opened for a request.
+         */
+        public long getPoolHits() {
+            return poolHits;
+        }
+
+        @Override
+        public String toString() {
+            return connections + " connections (" + idleConnections + " idle), "
+                    + runningRequests + " running and " + queuedRequests + " queued requests, "
+                    + poolHits + " of " + connectionsAcquired + " connections reused from the pool";
+        }
+    }
+}
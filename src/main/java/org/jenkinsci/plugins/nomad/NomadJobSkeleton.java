@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.nomad;
+
+import okio.BufferedSink;
+import org.jenkinsci.plugins.nomad.Api.NomadJson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A job specification serialized once per template, with markers in place of
+ * the values that change between launches (the agent name and the JNLP secret).
+ *
+ * Rendering only concatenates the precompiled fragments with the escaped
+ * per-agent values, so no object graph or reflection is involved per launch.
+ */
+final class NomadJobSkeleton {
+
+    static final String NAME_MARKER = "%%NOMAD_AGENT_NAME%%";
+    static final String SECRET_MARKER = "%%NOMAD_AGENT_SECRET%%";
+
+    private static final int NAME = 0;
+    private static final int SECRET = 1;
+
+    private final String[] fragments;
+    private final int[] slots;
+    private final boolean secured;
+    private final int fixedLength;
+
+    NomadJobSkeleton(String json, boolean secured) {
+        List<String> fragmentList = new ArrayList<>();
+        List<Integer> slotList = new ArrayList<>();
+
+        int start = 0;
+        while (true) {
+            int name = json.indexOf(NAME_MARKER, start);
+            int secret = json.indexOf(SECRET_MARKER, start);
+
+            int next;
+            int slot;
+            int markerLength;
+            if (name >= 0 && (secret < 0 || name < secret)) {
+                next = name;
+                slot = NAME;
+                markerLength = NAME_MARKER.length();
+            } else if (secret >= 0) {
+                next = secret;
+                slot = SECRET;
+                markerLength = SECRET_MARKER.length();
+            } else {
+                break;
+            }
+
+            fragmentList.add(json.substring(start, next));
+            slotList.add(slot);
+            start = next + markerLength;
+        }
+        fragmentList.add(json.substring(start));
+
+        this.fragments = fragmentList.toArray(new String[0]);
+        this.slots = new int[slotList.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i);
+        }
+
+        int length = 0;
+        for (String fragment : fragments) {
+            length += fragment.length();
+        }
+        this.fixedLength = length;
+        this.secured = secured;
+    }
+
+    /**
+     * Whether the skeleton was compiled with a secret slot, i.e. for a Jenkins with security enabled.
+     */
+    boolean isSecured() {
+        return secured;
+    }
+
+    String render(String name, String secret) {
+        String escapedName = escape(name);
+        String escapedSecret = escape(secret);
+
+        StringBuilder sb = new StringBuilder(fixedLength + slots.length * Math.max(escapedName.length(), escapedSecret.length()));
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(fragments[i]);
+            sb.append(slots[i] == NAME ? escapedName : escapedSecret);
+        }
+        sb.append(fragments[fragments.length - 1]);
+        return sb.toString();
+    }
+
+    /**
+     * Streams the rendered job straight into a request body, without materializing it as one string.
+     */
+    void writeTo(BufferedSink sink, String name, String secret) throws IOException {
+        String escapedName = escape(name);
+        String escapedSecret = escape(secret);
+
+        for (int i = 0; i < slots.length; i++) {
+            sink.writeUtf8(fragments[i]);
+            sink.writeUtf8(slots[i] == NAME ? escapedName : escapedSecret);
+        }
+        sink.writeUtf8(fragments[fragments.length - 1]);
+    }
+
+    // Escapes a value the same way Gson does inside a JSON string literal
+    private static String escape(String value) {
+        String quoted = NomadJson.GSON.toJson(value);
+        return quoted.substring(1, quoted.length() - 1);
+    }
+}
@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.nomad;
+
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.nomad.Api.JobInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mirrors the Nomad jobs of a cloud in memory, kept up to date by background threads running blocking queries
+ * against {@code /v1/jobs}, one per template prefix, so jobs of other tenants of the cluster are neither fetched
+ * nor mirrored. Pruning and termination read the mirror instead of listing jobs on the provisioning path.
+ *
+ * The threads end once their cloud is no longer part of the Jenkins configuration.
+ */
+final class NomadJobWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadJobWatcher.class.getName());
+
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final NomadCloud cloud;
+    private final List<Query> queries = new ArrayList<>();
+
+    // Sorted by job ID, so all jobs with a given prefix are one contiguous range
+    private final ConcurrentNavigableMap<String, JobInfo> jobs = new ConcurrentSkipListMap<>();
+
+    private volatile boolean stopped;
+
+    NomadJobWatcher(NomadCloud cloud, Collection<String> prefixes) {
+        this.cloud = cloud;
+        for (String prefix : prefixes) {
+            queries.add(new Query(prefix));
+        }
+    }
+
+    void start() {
+        for (Query query : queries) {
+            Thread thread = new Thread(query, "Nomad job watcher for " + cloud.getName() + " (" + query.prefix + ")");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Whether the mirror reflects a successful query of every prefix that has not been followed by a failed one.
+     */
+    boolean isSynced() {
+        for (Query query : queries) {
+            if (!query.synced)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The highest Nomad index the mirror reflects, or 0 while no query succeeded.
+     */
+    long getIndex() {
+        long index = 0;
+        for (Query query : queries) {
+            index = Math.max(index, query.index);
+        }
+        return index;
+    }
+
+    /**
+     * The mirrored jobs whose ID starts with the given prefix.
+     */
+    JobInfo[] getJobs(String prefix) {
+        return range(prefix).values().toArray(new JobInfo[0]);
+    }
+
+    JobInfo getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private ConcurrentNavigableMap<String, JobInfo> range(String prefix) {
+        return jobs.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Follows the jobs with one prefix. The prefixes of a watcher do not overlap, so each query owns its range of
+     * the mirror.
+     */
+    private final class Query implements Runnable {
+
+        private final String prefix;
+
+        private volatile long index;
+        private volatile boolean synced;
+
+        Query(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped && isConfigured()) {
+                try {
+                    NomadApi.Indexed<JobInfo[]> result = cloud.Nomad().watchJobs(prefix, index);
+
+                    // The index only goes backwards when the cluster state was reset, start over in that case
+                    long next = result.index < index ? 0 : result.index;
+                    if (next != index || !synced) {
+                        update(result.value);
+                    }
+                    index = next;
+                    synced = true;
+                } catch (IOException | RuntimeException e) {
+                    synced = false;
+                    LOGGER.log(Level.FINE, "Failed to watch Nomad jobs with prefix " + prefix + " of cloud " + cloud.getName() + ", retrying", e);
+                    try {
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            synced = false;
+            LOGGER.log(Level.FINE, "Stopped watching Nomad jobs with prefix " + prefix + " of cloud " + cloud.getName());
+        }
+
+        private void update(JobInfo[] current) {
+            if (current == null)
+                return;
+
+            Set<String> seen = new HashSet<>();
+            for (JobInfo job : current) {
+                seen.add(job.getID());
+                jobs.put(job.getID(), job);
+            }
+
+            List<String> gone = new ArrayList<>();
+            for (String id : range(prefix).keySet()) {
+                if (!seen.contains(id))
+                    gone.add(id);
+            }
+            for (String id : gone) {
+                jobs.remove(id);
+            }
+        }
+    }
+
+    private boolean isConfigured() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null && jenkins.clouds.contains(cloud);
+    }
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Computer;
+import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpSlaveAgentProtocol;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.nomad.Api.JobRegisterResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces agent launches for the same template into a single Nomad job whose task group runs one
+ * allocation per agent.
+ *
+ * A batch is opened by the first reservation for a template and collects further reservations during the
+ * template's batch window. It is registered once the window has elapsed and every member has added its node
+ * to Jenkins, so the pruning of orphaned workers never sees the job without its nodes.
+ *
+ * A batch passes the launch rate limits as one launch right before it is registered. Its members add their
+ * nodes without waiting for the limits, so no member holds up the others.
+ */
+final class NomadLaunchBatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadLaunchBatcher.class.getName());
+
+    static final int MAX_BATCH_SIZE = Integer.getInteger(NomadLaunchBatcher.class.getName() + ".maxBatchSize", 100);
+
+    private final NomadCloud cloud;
+
+    private final Map<NomadSlaveTemplate, Batch> open = new HashMap<>();
+
+    NomadLaunchBatcher(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Reserves a slot for one agent in the currently open batch of the template.
+     */
+    synchronized Member reserve(NomadSlaveTemplate template) {
+        Batch batch = open.get(template);
+        if (batch == null) {
+            final Batch opened = new Batch(template, template.createSlaveName());
+            open.put(template, opened);
+            Timer.get().schedule(() -> windowElapsed(opened), template.getBatchWindowInMillis(), TimeUnit.MILLISECONDS);
+            batch = opened;
+        }
+
+        Member member = new Member(batch, batch.size++);
+        if (batch.size >= MAX_BATCH_SIZE) {
+            windowElapsed(batch);
+        }
+        return member;
+    }
+
+    private void windowElapsed(Batch batch) {
+        synchronized (this) {
+            if (open.get(batch.template) == batch)
+                open.remove(batch.template);
+            batch.windowElapsed = true;
+        }
+        flushIfComplete(batch);
+    }
+
+    private void ready(Batch batch) {
+        synchronized (this) {
+            batch.ready++;
+        }
+        flushIfComplete(batch);
+    }
+
+    private void flushIfComplete(final Batch batch) {
+        synchronized (this) {
+            if (batch.flushed || !batch.windowElapsed || batch.ready < batch.size)
+                return;
+            batch.flushed = true;
+        }
+        cloud.getLaunchThrottle().acquire(batch.template).whenCompleteAsync((v, e) -> {
+            if (e == null)
+                flush(batch);
+            else
+                batch.registration.completeExceptionally(e);
+        }, Computer.threadPoolForRemoting);
+    }
+
+    private void flush(Batch batch) {
+        try {
+            boolean secured = Jenkins.get().isUseSecurity();
+
+            List<String> secrets = new ArrayList<>(batch.size);
+            for (int i = 0; i < batch.size; i++) {
+                secrets.add(secured ? JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(batch.slaveName(i)) : "");
+            }
+
+            LOGGER.log(Level.INFO, "Asking Nomad to schedule a batch of " + batch.size + " Jenkins slaves as job " + batch.jobId);
+            cloud.Nomad().startBatch(cloud, batch.jobId, secrets, batch.template).whenComplete((response, e) -> {
+                if (e == null) {
+                    LOGGER.log(Level.FINE, "Batch job " + batch.jobId + " registered, evaluation " + response.getEvalID());
+                    batch.registration.complete(response);
+                } else {
+                    batch.registration.completeExceptionally(NomadApi.unwrap(e));
+                }
+            });
+        } catch (RuntimeException e) {
+            batch.registration.completeExceptionally(e);
+        }
+    }
+
+    private static final class Batch {
+        final NomadSlaveTemplate template;
+        final String jobId;
+        final CompletableFuture<JobRegisterResponse> registration = new CompletableFuture<>();
+
+        int size;
+        int ready;
+        boolean windowElapsed;
+        boolean flushed;
+
+        Batch(NomadSlaveTemplate template, String jobId) {
+            this.template = template;
+            this.jobId = jobId;
+        }
+
+        String slaveName(int index) {
+            return jobId + "-" + index;
+        }
+    }
+
+    /**
+     * One agent of a batch.
+     */
+    final class Member {
+        private final Batch batch;
+        private final int index;
+        private boolean readied;
+
+        private Member(Batch batch, int index) {
+            this.batch = batch;
+            this.index = index;
+        }
+
+        String getJobId() {
+            return batch.jobId;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        String getSlaveName() {
+            return batch.slaveName(index);
+        }
+
+        /**
+         * Signals that the member's node was added to Jenkins, or that it never will be.
+         */
+        void ready() {
+            synchronized (NomadLaunchBatcher.this) {
+                if (readied)
+                    return;
+                readied = true;
+            }
+            NomadLaunchBatcher.this.ready(batch);
+        }
+
+        /**
+         * Completes once the batch job has been registered with Nomad.
+         */
+        CompletableFuture<JobRegisterResponse> getRegistration() {
+            return batch.registration;
+        }
+    }
+}
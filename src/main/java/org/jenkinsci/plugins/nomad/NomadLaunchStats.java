@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.nomad;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recent launch outcomes of a cloud: how long agents took to come online, and how many launches failed.
+ *
+ * Both are exponentially weighted moving averages. The failure rate also decays with time, so a cloud that was
+ * failing and then received no launches is tried again after a while.
+ */
+final class NomadLaunchStats {
+
+    // Weight of the newest launch in the averages
+    static final double ALPHA = 0.2;
+
+    static final long FAILURE_HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(
+            Integer.getInteger(NomadLaunchStats.class.getName() + ".failureHalfLifeMinutes", 5));
+
+    private double latencyMillis = -1;
+    private double failureRate;
+    private long updated = System.currentTimeMillis();
+    private long launches;
+
+    synchronized void recordSuccess(long latencyMillis) {
+        this.latencyMillis = this.latencyMillis < 0 ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * this.latencyMillis;
+        record(0);
+    }
+
+    synchronized void recordFailure() {
+        record(1);
+    }
+
+    private void record(double failed) {
+        long now = System.currentTimeMillis();
+        failureRate = ALPHA * failed + (1 - ALPHA) * decayedFailureRate(now);
+        updated = now;
+        launches++;
+    }
+
+    private double decayedFailureRate(long now) {
+        return failureRate * Math.pow(0.5, (now - updated) / (double) FAILURE_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * Average time from requesting an agent to it being online, or -1 if no agent came online yet.
+     */
+    synchronized long getLatencyMillis() {
+        return (long) latencyMillis;
+    }
+
+    /**
+     * Share of recent launches that failed, between 0 and 1.
+     */
+    synchronized double getFailureRate() {
+        return decayedFailureRate(System.currentTimeMillis());
+    }
+
+    synchronized long getLaunches() {
+        return launches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return launches + " launches, " + (latencyMillis < 0 ? "no" : (long) latencyMillis + " ms") + " average latency, "
+                + Math.round(getFailureRate() * 100) + "% failing";
+    }
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.nomad;
+
+import jenkins.util.Timer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits agent launches of a cloud at the rates configured for the cloud and its templates. Each rate is a token
+ * bucket that refills continuously and holds up to its burst size. A launch takes a token from both buckets.
+ *
+ * Launches that find no token wait in a queue per template. The queues are served round robin, so a template
+ * with a long queue does not starve the others of the cloud's tokens.
+ *
+ * Templates are told apart by their prefix. Saving the configuration replaces the cloud, but not its throttle,
+ * which is handed over to the new cloud and keeps the tokens its buckets hold, so a save does not refill them.
+ */
+final class NomadLaunchThrottle {
+
+    private NomadCloud cloud;
+
+    private Bucket cloudBucket;
+    private final Map<String, Bucket> templateBuckets = new HashMap<>();
+
+    // The latest template per prefix, whose rate its bucket is created with
+    private final Map<String, NomadSlaveTemplate> templates = new HashMap<>();
+
+    // By template prefix in serving order, a template moves to the end once one of its launches was admitted
+    private final LinkedHashMap<String, Deque<CompletableFuture<Void>>> waiting = new LinkedHashMap<>();
+    private int queued;
+
+    private ScheduledFuture<?> wakeUp;
+
+    NomadLaunchThrottle(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Completes once the launch may go ahead, right away if both buckets hold a token.
+     */
+    synchronized CompletableFuture<Void> acquire(NomadSlaveTemplate template) {
+        CompletableFuture<Void> admitted = new CompletableFuture<>();
+        templates.put(template.getPrefix(), template);
+        waiting.computeIfAbsent(template.getPrefix(), p -> new ArrayDeque<>()).add(admitted);
+        queued++;
+        drain();
+        return admitted;
+    }
+
+    /**
+     * Number of launches waiting for a token.
+     */
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    synchronized int getQueued(NomadSlaveTemplate template) {
+        Deque<CompletableFuture<Void>> queue = waiting.get(template.getPrefix());
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Hands the throttle over to the cloud replacing its own. The rates configured for the new cloud and its
+     * templates apply from then on, starting from the tokens the buckets hold.
+     */
+    synchronized void handOver(NomadCloud cloud) {
+        this.cloud = cloud;
+        cloudBucket = Bucket.of(cloud.getLaunchRatePerMinute(), cloud.getLaunchBurst(), cloudBucket);
+
+        // Templates no longer configured keep their rate for the launches they still have queued
+        for (NomadSlaveTemplate template : cloud.getTemplates()) {
+            String prefix = template.getPrefix();
+            templates.put(prefix, template);
+            if (!templateBuckets.containsKey(prefix))
+                continue;
+
+            templateBuckets.put(prefix, Bucket.of(template.getLaunchRatePerMinute(), template.getLaunchBurst(), templateBuckets.get(prefix)));
+        }
+        drain();
+    }
+
+    private synchronized void wakeUp() {
+        wakeUp = null;
+        drain();
+    }
+
+    private void drain() {
+        List<CompletableFuture<Void>> admitted = new ArrayList<>();
+        long now = System.nanoTime();
+        long nextToken = Long.MAX_VALUE;
+
+        boolean progress = true;
+        while (progress && queued > 0) {
+            progress = false;
+            for (String prefix : new ArrayList<>(waiting.keySet())) {
+                Deque<CompletableFuture<Void>> queue = waiting.get(prefix);
+                Bucket shared = cloudBucket();
+                Bucket own = templateBucket(prefix);
+
+                long wait = Math.max(waitNanos(shared, now), waitNanos(own, now));
+                if (wait > 0) {
+                    nextToken = Math.min(nextToken, wait);
+                    continue;
+                }
+
+                take(shared);
+                take(own);
+                admitted.add(queue.poll());
+                queued--;
+                progress = true;
+
+                waiting.remove(prefix);
+                if (!queue.isEmpty())
+                    waiting.put(prefix, queue);
+            }
+        }
+
+        if (queued > 0 && wakeUp == null && nextToken != Long.MAX_VALUE)
+            wakeUp = Timer.get().schedule(this::wakeUp, nextToken, TimeUnit.NANOSECONDS);
+
+        // Continue the launches outside of the lock
+        if (!admitted.isEmpty())
+            Timer.get().submit(() -> admitted.forEach(f -> f.complete(null)));
+    }
+
+    private Bucket cloudBucket() {
+        if (cloudBucket == null)
+            cloudBucket = Bucket.of(cloud.getLaunchRatePerMinute(), cloud.getLaunchBurst());
+        return cloudBucket;
+    }
+
+    private Bucket templateBucket(String prefix) {
+        if (!templateBuckets.containsKey(prefix)) {
+            NomadSlaveTemplate template = templates.get(prefix);
+            templateBuckets.put(prefix, Bucket.of(template.getLaunchRatePerMinute(), template.getLaunchBurst()));
+        }
+        return templateBuckets.get(prefix);
+    }
+
+    private static long waitNanos(Bucket bucket, long now) {
+        return bucket == null ? 0 : bucket.nanosUntilToken(now);
+    }
+
+    private static void take(Bucket bucket) {
+        if (bucket != null)
+            bucket.tokens--;
+    }
+
+    private static final class Bucket {
+        final double tokensPerNano;
+        final double capacity;
+
+        double tokens;
+        long refilled;
+
+        private Bucket(int perMinute, int burst) {
+            this.tokensPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.capacity = burst;
+            this.tokens = burst;
+            this.refilled = System.nanoTime();
+        }
+
+        // No bucket stands for no limit
+        static Bucket of(int perMinute, int burst) {
+            return perMinute > 0 ? new Bucket(perMinute, Math.max(1, burst)) : null;
+        }
+
+        // A bucket for the given rate holding the tokens of the previous one by now, up to its own burst
+        static Bucket of(int perMinute, int burst, Bucket previous) {
+            Bucket bucket = of(perMinute, burst);
+            if (bucket != null && previous != null) {
+                previous.nanosUntilToken(bucket.refilled);
+                bucket.tokens = Math.min(bucket.capacity, previous.tokens);
+            }
+            return bucket;
+        }
+
+        long nanosUntilToken(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+            refilled = now;
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+}
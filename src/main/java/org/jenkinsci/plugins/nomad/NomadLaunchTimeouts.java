@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.nomad;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Derives how long a cloud waits for an agent of a template to come online from how long the template's recent
+ * launches took: a high percentile of the latest launch latencies times a safety factor, kept between the cloud's
+ * floor and ceiling. Until a template has enough launches behind it the ceiling applies.
+ *
+ * A launch that timed out only tells that it would have taken at least as long as it was given, so it counts as a
+ * launch that took exactly that long, which raises the timeout of a template whose launches became slower. Once a
+ * template's launches time out several times in a row the ceiling applies again until one succeeds.
+ */
+final class NomadLaunchTimeouts {
+
+    static final int WINDOW = Integer.getInteger(NomadLaunchTimeouts.class.getName() + ".window", 100);
+    static final int MIN_SAMPLES = Integer.getInteger(NomadLaunchTimeouts.class.getName() + ".minSamples", 5);
+
+    static final double PERCENTILE = Double.parseDouble(
+            System.getProperty(NomadLaunchTimeouts.class.getName() + ".percentile", "0.95"));
+    static final double SAFETY_FACTOR = Double.parseDouble(
+            System.getProperty(NomadLaunchTimeouts.class.getName() + ".safetyFactor", "2"));
+
+    static final int MAX_CONSECUTIVE_TIMEOUTS = Integer.getInteger(
+            NomadLaunchTimeouts.class.getName() + ".maxConsecutiveTimeouts", 2);
+
+    private final ConcurrentMap<NomadSlaveTemplate, Window> latencies = new ConcurrentHashMap<>();
+
+    void record(NomadSlaveTemplate template, long latencyMillis) {
+        latencies.computeIfAbsent(template, t -> new Window(WINDOW)).add(latencyMillis, false);
+    }
+
+    /**
+     * Records a launch that timed out after the given time.
+     */
+    void timedOut(NomadSlaveTemplate template, long elapsedMillis) {
+        latencies.computeIfAbsent(template, t -> new Window(WINDOW)).add(elapsedMillis, true);
+    }
+
+    long getTimeoutMillis(NomadSlaveTemplate template, long floorMillis, long ceilingMillis) {
+        Window window = latencies.get(template);
+        if (window == null || window.getConsecutiveTimeouts() >= MAX_CONSECUTIVE_TIMEOUTS)
+            return ceilingMillis;
+
+        long percentile = window.percentile(PERCENTILE, MIN_SAMPLES);
+        if (percentile < 0)
+            return ceilingMillis;
+        return Math.max(floorMillis, Math.min(ceilingMillis, (long) (percentile * SAFETY_FACTOR)));
+    }
+
+    /**
+     * The latest launch latencies of a template, oldest overwritten first, and how many launches in a row timed out.
+     */
+    static final class Window {
+        private final long[] samples;
+        private int next;
+        private int size;
+        private int consecutiveTimeouts;
+
+        Window(int capacity) {
+            samples = new long[capacity];
+        }
+
+        synchronized void add(long sample, boolean timedOut) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+            consecutiveTimeouts = timedOut ? consecutiveTimeouts + 1 : 0;
+        }
+
+        synchronized int getConsecutiveTimeouts() {
+            return consecutiveTimeouts;
+        }
+
+        /**
+         * The given percentile of the samples, or -1 with fewer samples than required.
+         */
+        synchronized long percentile(double percentile, int minSamples) {
+            if (size == 0 || size < minSamples)
+                return -1;
+
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, rank))];
+        }
+    }
+}
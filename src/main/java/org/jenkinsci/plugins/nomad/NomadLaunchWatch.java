@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.nomad;
+
+import jenkins.util.Timer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Watches one launch while its agent is expected to connect. The launch fails with a reason as soon as Nomad
+ * reports that the agent will not come up, and times out at a deadline.
+ *
+ * While Nomad retries a failed agent next to the failure, restarting its task or rescheduling its allocation
+ * within the limits of the template, the deadline is pushed back by the delay of each retry instead of starting
+ * over, so the launch neither times out because of a retry nor waits longer than the retries need.
+ */
+final class NomadLaunchWatch {
+
+    private final NomadSlaveTemplate template;
+
+    private final CompletableFuture<String> failure = new CompletableFuture<>();
+
+    // Restarts seen per allocation, and the failed allocations Nomad reschedules
+    private final Map<String, Integer> restarts = new HashMap<>();
+    private final Set<String> rescheduled = new HashSet<>();
+
+    private long extensionMillis;
+    private long timeoutMillis;
+    private long deadline;
+    private CompletableFuture<?> online;
+    private ScheduledFuture<?> timeout;
+
+    NomadLaunchWatch(NomadSlaveTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Completed with a reason when Nomad reports that the agent will not come up.
+     */
+    CompletableFuture<String> getFailure() {
+        return failure;
+    }
+
+    /**
+     * Times the given wait for the agent out after the given time, plus the retries seen so far and to come.
+     */
+    synchronized void await(CompletableFuture<?> online, long timeoutMillis) {
+        this.online = online;
+        this.timeoutMillis = timeoutMillis;
+        this.deadline = System.currentTimeMillis() + timeoutMillis + extensionMillis;
+        schedule();
+    }
+
+    synchronized void stop() {
+        online = null;
+        if (timeout != null)
+            timeout.cancel(false);
+    }
+
+    /**
+     * How long the launch was given in the end, including the retries.
+     */
+    synchronized long getTimeoutMillis() {
+        return timeoutMillis + extensionMillis;
+    }
+
+    /**
+     * Notes that the tasks of the given allocation were restarted the given number of times in total, and
+     * returns by how much the deadline was pushed back.
+     */
+    synchronized long restarted(String allocation, int total) {
+        int seen = restarts.getOrDefault(allocation, 0);
+        if (total <= seen)
+            return 0;
+
+        restarts.put(allocation, total);
+        return extend((total - seen) * TimeUnit.SECONDS.toMillis(template.getRestartDelaySeconds()));
+    }
+
+    /**
+     * Notes that the given allocation failed, and returns whether Nomad reschedules it rather than the launch
+     * failing.
+     */
+    synchronized boolean rescheduled(String allocation) {
+        if (rescheduled.contains(allocation))
+            return true;
+        if (rescheduled.size() >= template.getRescheduleAttempts())
+            return false;
+
+        rescheduled.add(allocation);
+        extend(TimeUnit.SECONDS.toMillis(template.getRescheduleDelaySeconds()));
+        return true;
+    }
+
+    private long extend(long millis) {
+        extensionMillis += millis;
+        if (online != null) {
+            deadline += millis;
+            schedule();
+        }
+        return millis;
+    }
+
+    private void schedule() {
+        if (timeout != null)
+            timeout.cancel(false);
+
+        final CompletableFuture<?> waiting = online;
+        timeout = Timer.get().schedule(() -> waiting.completeExceptionally(new TimeoutException()),
+                Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,4 +1,3 @@
-
 package org.jenkinsci.plugins.nomad;
 
 import hudson.Extension;
@@ -7,7 +6,13 @@ import hudson.model.LoadStatistics.LoadStatisticsSnapshot;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static java.util.logging.Logger.getLogger;
@@ -18,54 +23,233 @@ import jenkins.model.Jenkins;
  *
  * Idea picked from yet-another-docker-pluign @kostyasha
  *
+ * Provisions asap, splitting the excess demand across all Nomad clouds that can serve the label. Each cloud's
+ * share is weighted by its remaining capacity, its recent launch latency and its recent failure rate. Clouds
+ * that fail or are much slower than the fastest one are left out while healthy clouds are available.
+ *
+ * Clouds with a pre-provisioning budget also get agents launched ahead of the demand the
+ * {@link NomadDemandForecast} expects by the time they would be online, up to that budget.
+ *
  * @author antweiss
  */
 @Extension
 public class NomadProvisioningStrategy extends NodeProvisioner.Strategy {
      private static final Logger LOGGER = getLogger(NomadProvisioningStrategy.class.getName());
 
+    // Share of recent launches failing above which a cloud is left out
+    static final double MAX_FAILURE_RATE = Double.parseDouble(
+            System.getProperty(NomadProvisioningStrategy.class.getName() + ".maxFailureRate", "0.5"));
+
+    // How many times slower than the fastest cloud a cloud may launch agents before it is left out
+    static final double SLOW_FACTOR = Double.parseDouble(
+            System.getProperty(NomadProvisioningStrategy.class.getName() + ".slowFactor", "3"));
+
+    // Lead time of the forecast while none of the clouds brought an agent online yet
+    static final long DEFAULT_LEAD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final NomadDemandForecast forecast = new NomadDemandForecast();
+
     /**
      * Do asap provisioning
      */
     @Nonnull
     @Override
     public NodeProvisioner.StrategyDecision apply(@Nonnull NodeProvisioner.StrategyState strategyState) {
-        for ( Cloud nomadCloud : Jenkins.get().clouds ){
-            if ( nomadCloud instanceof NomadCloud ) {
-                final Label label = strategyState.getLabel();
-                LoadStatisticsSnapshot snapshot = strategyState.getSnapshot();
-                LOGGER.log(Level.FINE, "Available executors={0} connecting executors={1} AdditionalPlannedCapacity={2} pending ={3}",
-                        new Object[]{snapshot.getAvailableExecutors(), snapshot.getConnectingExecutors(), strategyState.getAdditionalPlannedCapacity(),((NomadCloud)nomadCloud).getPending() });
-                int availableCapacity = snapshot.getAvailableExecutors() +
-                        snapshot.getConnectingExecutors() +
-                        strategyState.getAdditionalPlannedCapacity() +
-                        ((NomadCloud)nomadCloud).getPending();
-
-                int currentDemand = snapshot.getQueueLength();
-
-                LOGGER.log(Level.FINE, "Available capacity="+availableCapacity+" currentDemand=" +currentDemand);
-
-                if (availableCapacity < currentDemand) {
-                    Collection<PlannedNode> plannedNodes = nomadCloud.provision(label, currentDemand - availableCapacity);
-                    LOGGER.log(Level.FINE, "Planned "+plannedNodes.size()+" new nodes");
-
-                    strategyState.recordPendingLaunches(plannedNodes);
-                    availableCapacity += plannedNodes.size();
-                    LOGGER.log(Level.FINE, "After provisioning, available capacity="+availableCapacity+" currentDemand="+ currentDemand);
-                }
-
-                if (availableCapacity >= currentDemand) {
-                    LOGGER.log(Level.FINE, "Provisioning completed");
-                    return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
-                } else {
-                    LOGGER.log(Level.FINE, "Provisioning not complete, consulting remaining strategies");
-                    return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
-                }
-            } else {
-                return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        final Label label = strategyState.getLabel();
+
+        List<NomadCloud> clouds = new ArrayList<>();
+        int launching = 0;
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof NomadCloud && cloud.canProvision(label)) {
+                NomadCloud nomadCloud = (NomadCloud) cloud;
+                clouds.add(nomadCloud);
+
+                // Executors of agents launched for this label's template, warm pool launches included. Launches
+                // whose node was added already are among the snapshot's connecting executors.
+                launching += nomadCloud.getUnregistered(label);
             }
         }
-        return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        if (clouds.isEmpty())
+            return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+
+        LoadStatisticsSnapshot snapshot = strategyState.getSnapshot();
+        LOGGER.log(Level.FINE, "Available executors={0} connecting executors={1} AdditionalPlannedCapacity={2} launching={3} clouds={4}",
+                new Object[]{snapshot.getAvailableExecutors(), snapshot.getConnectingExecutors(), strategyState.getAdditionalPlannedCapacity(), launching, clouds.size()});
+        int availableCapacity = snapshot.getAvailableExecutors() +
+                snapshot.getConnectingExecutors() +
+                strategyState.getAdditionalPlannedCapacity() +
+                launching;
+
+        int currentDemand = snapshot.getQueueLength();
+        String key = label == null ? "" : label.getExpression();
+        forecast.record(key, currentDemand + snapshot.getBusyExecutors(), System.currentTimeMillis());
+
+        LOGGER.log(Level.FINE, "Available capacity="+availableCapacity+" currentDemand=" +currentDemand);
+
+        if (availableCapacity < currentDemand) {
+            int excess = currentDemand - availableCapacity;
+            availableCapacity += provision(strategyState, split(clouds, label, excess, c -> Integer.MAX_VALUE), label, excess, false);
+            LOGGER.log(Level.FINE, "After provisioning, available capacity="+availableCapacity+" currentDemand="+ currentDemand);
+        }
+
+        if (availableCapacity >= currentDemand)
+            availableCapacity += preProvision(strategyState, clouds, label, key, snapshot, availableCapacity - currentDemand);
+
+        if (availableCapacity >= currentDemand) {
+            LOGGER.log(Level.FINE, "Provisioning completed");
+            return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+        } else {
+            LOGGER.log(Level.FINE, "Provisioning not complete, consulting remaining strategies");
+            return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        }
+    }
+
+    /**
+     * Launches agents for the demand expected by the time they are online, beyond the demand already covered.
+     * Only clouds with pre-provisioning budget left take part. The idle agents of a cloud, whatever label they
+     * were launched for, and its warm pool and pre-provisioning launches in flight count against its budget.
+     */
+    private int preProvision(NodeProvisioner.StrategyState strategyState, List<NomadCloud> clouds, Label label, String key,
+                             LoadStatisticsSnapshot snapshot, int surplus) {
+        List<NomadCloud> budgeted = new ArrayList<>();
+        int budget = 0;
+        long leadMillis = -1;
+        for (NomadCloud cloud : clouds) {
+            int headroom = cloud.getPreProvisionHeadroom();
+            if (headroom <= 0)
+                continue;
+            budgeted.add(cloud);
+            budget += headroom;
+            leadMillis = Math.max(leadMillis, cloud.getLaunchStats().getLatencyMillis());
+        }
+        if (budgeted.isEmpty())
+            return 0;
+
+        long now = System.currentTimeMillis();
+        double predicted = forecast.predict(key, leadMillis < 0 ? DEFAULT_LEAD_MILLIS : leadMillis, now);
+        int expected = (int) Math.ceil(predicted) - snapshot.getQueueLength() - snapshot.getBusyExecutors();
+        int missing = Math.min(budget, expected - surplus);
+        if (missing <= 0)
+            return 0;
+
+        LOGGER.log(Level.INFO, "Expecting a demand of " + Math.round(predicted) + " executors for label " + label
+                + ", launching agents for " + missing + " executors ahead of it");
+        return provision(strategyState, split(budgeted, label, missing, NomadCloud::getPreProvisionHeadroom), label, missing, true);
     }
-}
 
+    // Clouds that planned less than their share, e.g. because they just reached a cap, leave the rest to the others
+    private static int provision(NodeProvisioner.StrategyState strategyState, Map<NomadCloud, Integer> shares, Label label, int excess,
+                                 boolean ahead) {
+        int planned = 0;
+        List<NomadCloud> complete = new ArrayList<>();
+        for (Map.Entry<NomadCloud, Integer> share : shares.entrySet()) {
+            int capacity = provision(strategyState, share.getKey(), label, share.getValue(), ahead);
+            planned += capacity;
+            if (capacity >= share.getValue())
+                complete.add(share.getKey());
+        }
+        for (NomadCloud cloud : complete) {
+            if (planned >= excess)
+                break;
+            planned += provision(strategyState, cloud, label, excess - planned, ahead);
+        }
+        return planned;
+    }
+
+    private static int provision(NodeProvisioner.StrategyState strategyState, NomadCloud cloud, Label label, int excessWorkload,
+                                 boolean ahead) {
+        Collection<PlannedNode> plannedNodes = ahead ? cloud.provisionAhead(label, excessWorkload) : cloud.provision(label, excessWorkload);
+        LOGGER.log(Level.FINE, "Planned "+plannedNodes.size()+" new nodes on cloud "+cloud.getName()+" for an excess workload of "+excessWorkload);
+        strategyState.recordPendingLaunches(plannedNodes);
+
+        int capacity = 0;
+        for (PlannedNode plannedNode : plannedNodes) {
+            capacity += plannedNode.numExecutors;
+        }
+        return capacity;
+    }
+
+    /**
+     * Splits the excess workload across the clouds, leaving out clouds without remaining capacity and, as long as
+     * healthy clouds remain, the failing and slow ones. No cloud gets more than its limit, and clouds without a
+     * share are not included.
+     */
+    static Map<NomadCloud, Integer> split(List<NomadCloud> clouds, Label label, int excess, ToIntFunction<NomadCloud> limit) {
+        List<NomadCloud> candidates = new ArrayList<>();
+        List<Integer> remaining = new ArrayList<>();
+        long fastest = -1;
+        long totalLatency = 0;
+        int knownLatencies = 0;
+        for (NomadCloud cloud : clouds) {
+            int executors = Math.min(cloud.getRemainingExecutors(label), limit.applyAsInt(cloud));
+            if (executors <= 0)
+                continue;
+
+            candidates.add(cloud);
+            remaining.add(executors);
+
+            long latency = cloud.getLaunchStats().getLatencyMillis();
+            if (latency >= 0) {
+                fastest = fastest < 0 ? latency : Math.min(fastest, latency);
+                totalLatency += latency;
+                knownLatencies++;
+            }
+        }
+
+        boolean[] healthy = new boolean[candidates.size()];
+        boolean anyHealthy = false;
+        for (int i = 0; i < candidates.size(); i++) {
+            NomadLaunchStats stats = candidates.get(i).getLaunchStats();
+            long latency = stats.getLatencyMillis();
+            healthy[i] = stats.getFailureRate() <= MAX_FAILURE_RATE && (latency < 0 || latency <= SLOW_FACTOR * fastest);
+            anyHealthy |= healthy[i];
+        }
+
+        // Clouds that did not launch an agent yet are assumed to be as fast as the others on average
+        double defaultLatency = knownLatencies > 0 ? totalLatency / (double) knownLatencies : 1000;
+        double[] weights = new double[candidates.size()];
+        int[] limits = new int[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            limits[i] = remaining.get(i);
+            if (anyHealthy && !healthy[i]) {
+                LOGGER.log(Level.FINE, "Leaving out cloud " + candidates.get(i).getName() + ": " + candidates.get(i).getLaunchStats());
+                continue;
+            }
+
+            NomadLaunchStats stats = candidates.get(i).getLaunchStats();
+            long latency = stats.getLatencyMillis();
+            double seconds = Math.max(1, (latency < 0 ? defaultLatency : latency) / 1000.0);
+            weights[i] = Math.max(Double.MIN_NORMAL, (1 - stats.getFailureRate()) * Math.min(limits[i], excess) / seconds);
+        }
+
+        int[] shares = apportion(weights, limits, excess);
+        Map<NomadCloud, Integer> split = new LinkedHashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (shares[i] > 0)
+                split.put(candidates.get(i), shares[i]);
+        }
+        return split;
+    }
+
+    /**
+     * Hands out the total one executor at a time to the open share with the highest weight per executor already
+     * given, so the shares end up proportional to the weights. A share stops growing at its limit, and shares
+     * with a weight of 0 get nothing.
+     */
+    static int[] apportion(double[] weights, int[] limits, int total) {
+        int[] shares = new int[weights.length];
+        for (int given = 0; given < total; given++) {
+            int next = -1;
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] <= 0 || shares[i] >= limits[i])
+                    continue;
+                if (next < 0 || weights[i] / (shares[i] + 1) > weights[next] / (shares[next] + 1))
+                    next = i;
+            }
+            if (next < 0)
+                break;
+            shares[next]++;
+        }
+        return shares;
+    }
+}
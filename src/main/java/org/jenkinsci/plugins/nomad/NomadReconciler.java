@@ -0,0 +1,277 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.nomad.Api.JobInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reconciles the Nomad jobs of every cloud that prunes orphaned workers with its Jenkins nodes, in both
+ * directions: jobs without a node are stopped, and nodes whose job is gone or dead are removed.
+ *
+ * Runs in the background at its own interval, so provisioning does not wait for job listings or stops.
+ *
+ * Agents are not kept across restarts of Jenkins, but their jobs are. On startup, the running jobs of every
+ * cloud get their nodes back instead of being stopped as orphans, and their agents reconnect. Agents of batch
+ * jobs are not adopted, they exit once disconnected and their allocations complete.
+ */
+@Extension
+public class NomadReconciler extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadReconciler.class.getName());
+
+    private static final long RECURRENCE_PERIOD = Long.getLong(NomadReconciler.class.getName() + ".recurrencePeriod", TimeUnit.MINUTES.toMillis(1));
+
+    public NomadReconciler() {
+        super("Nomad reconciler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof NomadCloud && ((NomadCloud) cloud).getPrune() && !((NomadCloud) cloud).isRestoring()) {
+                reconcile((NomadCloud) cloud);
+            }
+        }
+    }
+
+    /**
+     * Adopts the agents that outlived a restart of Jenkins, before the clouds provision new ones.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void restoreAfterRestart() {
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof NomadCloud)
+                ((NomadCloud) cloud).restore();
+        }
+    }
+
+    /**
+     * Gives every live job of the cloud's templates without a node its node back, named as when the agent was
+     * launched. Agents of recycling and batch launching templates are left out, they end with their connection
+     * to Jenkins.
+     */
+    static void restore(NomadCloud cloud) {
+        Set<String> slaveJobs = new HashSet<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof NomadSlave && cloud.name.equals(((NomadSlave) node).getCloudName()) && ((NomadSlave) node).getJobId() != null)
+                slaveJobs.add(((NomadSlave) node).getJobId());
+        }
+
+        int adopted = 0;
+        for (NomadSlaveTemplate template : cloud.getTemplates()) {
+            if (template.isRecycling() || template.isBatchLaunch())
+                continue;
+
+            JobInfo[] jobs = cloud.getWorkers(template.getPrefix());
+            if (jobs == null) {
+                LOGGER.log(Level.WARNING, "Could not list the Nomad jobs of template " + template.getPrefix() + ", not adopting its agents");
+                continue;
+            }
+            for (JobInfo job : jobs) {
+                if (Boolean.TRUE.equals(job.getParameterizedJob()) || "dead".equalsIgnoreCase(job.getStatus())
+                        || slaveJobs.contains(job.getID()) || cloud.getTemplateOf(job.getID()) != template)
+                    continue;
+
+                try {
+                    adopted += adopt(cloud, template, job);
+                } catch (IOException | Descriptor.FormException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to adopt the agents of Nomad job " + job.getID(), NomadApi.unwrap(e));
+                }
+            }
+        }
+        LOGGER.log(adopted > 0 ? Level.INFO : Level.FINE, "Adopted " + adopted + " running agents of cloud " + cloud.getName());
+    }
+
+    private static int adopt(NomadCloud cloud, NomadSlaveTemplate template, JobInfo job) throws IOException, Descriptor.FormException {
+        String jobId = job.getID();
+        if (StringUtils.isNotEmpty(job.getParentID())) {
+            String slaveName = cloud.Nomad().getDispatchedSlaveName(jobId);
+            if (slaveName == null || Jenkins.get().getNode(slaveName) != null)
+                return 0;
+            cloud.adopt(template, slaveName, jobId, job.getParentID());
+            return 1;
+        }
+
+        if (Jenkins.get().getNode(jobId) != null)
+            return 0;
+        cloud.adopt(template, jobId, jobId, null);
+        return 1;
+    }
+
+    static void reconcile(NomadCloud cloud) {
+        long started = System.currentTimeMillis();
+
+        List<NomadSlaveTemplate> templates = cloud.getTemplates();
+        Map<String, JobInfo> jobs = new HashMap<>();
+        for (NomadSlaveTemplate template : templates) {
+            JobInfo[] workers = cloud.getWorkers(template.getPrefix());
+            if (workers == null) {
+                LOGGER.log(Level.WARNING, "Could not list the Nomad jobs of cloud " + cloud.getName() + ", skipping reconciliation");
+                return;
+            }
+            for (JobInfo worker : workers) {
+                jobs.put(worker.getID(), worker);
+            }
+        }
+
+        List<NomadSlave> slaves = new ArrayList<>();
+        Set<String> slaveJobs = new HashSet<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof NomadSlave && cloud.name.equals(((NomadSlave) node).getCloudName())) {
+                NomadSlave slave = (NomadSlave) node;
+                slaves.add(slave);
+                if (slave.getJobId() != null)
+                    slaveJobs.add(slave.getJobId());
+            }
+        }
+
+        // Jobs without a node, including dead ones left in Nomad's state when jobs are purged
+        boolean purge = cloud.getPurgeJobs();
+        List<String> orphans = new ArrayList<>();
+        for (JobInfo job : jobs.values()) {
+            // The parameterized job agents are dispatched from is never an orphan
+            if (Boolean.TRUE.equals(job.getParameterizedJob()) || (!purge && "dead".equalsIgnoreCase(job.getStatus())))
+                continue;
+
+            if (!slaveJobs.contains(job.getID()) && !cloud.isDispatchedForExistingSlave(job)) {
+                LOGGER.log(Level.FINE, "Found Orphaned Node: " + job.getID());
+                orphans.add(job.getID());
+            }
+        }
+
+        // Nodes without a live job, leaving out the ones still being launched
+        int deadNodes = 0;
+        for (NomadSlave slave : slaves) {
+            String jobId = slave.getJobId();
+            if (jobId == null || cloud.isLaunching(slave.getNodeName()))
+                continue;
+
+            JobInfo job = jobs.get(jobId);
+            if (job != null && !"dead".equalsIgnoreCase(job.getStatus()))
+                continue;
+
+            // A connected agent proves its job is alive, whatever a lagging job mirror says
+            Computer computer = slave.toComputer();
+            if (computer != null && (computer.isOnline() || !computer.isIdle()))
+                continue;
+
+            LOGGER.log(Level.INFO, "Nomad job " + jobId + " of slave " + slave.getNodeName() + " is " + (job == null ? "gone" : "dead") + ", removing the slave");
+            try {
+                slave.terminate();
+                deadNodes++;
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove slave " + slave.getNodeName(), e);
+            }
+        }
+
+        AtomicInteger failedStops = new AtomicInteger();
+        NomadTerminationQueue terminations = cloud.getTerminationQueue();
+        List<CompletableFuture<Void>> stopping = new ArrayList<>();
+        for (String jobId : orphans) {
+            stopping.add(terminations.stopJob(jobId).whenComplete((r, e) -> {
+                if (e != null)
+                    failedStops.incrementAndGet();
+            }));
+        }
+        CompletableFuture<Void> stops = CompletableFuture.allOf(stopping.toArray(new CompletableFuture[0]));
+        try {
+            stops.get(RECURRENCE_PERIOD, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.WARNING, "Not all orphaned jobs of cloud " + cloud.getName() + " were stopped in time", e);
+        }
+
+        Result result = new Result(started, System.currentTimeMillis() - started, jobs.size(), slaves.size(),
+                orphans.size() - failedStops.get(), failedStops.get(), deadNodes);
+        cloud.setLastReconciliation(result);
+        LOGGER.log(orphans.isEmpty() && deadNodes == 0 ? Level.FINE : Level.INFO, "Reconciled cloud " + cloud.getName() + ": " + result);
+    }
+
+    /**
+     * What one reconciliation of a cloud found and did.
+     */
+    public static final class Result {
+        private final long timestamp;
+        private final long durationMillis;
+        private final int jobs;
+        private final int slaves;
+        private final int stoppedJobs;
+        private final int failedStops;
+        private final int removedSlaves;
+
+        Result(long timestamp, long durationMillis, int jobs, int slaves, int stoppedJobs, int failedStops, int removedSlaves) {
+            this.timestamp = timestamp;
+            this.durationMillis = durationMillis;
+            this.jobs = jobs;
+            this.slaves = slaves;
+            this.stoppedJobs = stoppedJobs;
+            this.failedStops = failedStops;
+            this.removedSlaves = removedSlaves;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public int getJobs() {
+            return jobs;
+        }
+
+        public int getSlaves() {
+            return slaves;
+        }
+
+        public int getStoppedJobs() {
+            return stoppedJobs;
+        }
+
+        public int getFailedStops() {
+            return failedStops;
+        }
+
+        public int getRemovedSlaves() {
+            return removedSlaves;
+        }
+
+        @Override
+        public String toString() {
+            return jobs + " jobs and " + slaves + " slaves compared, " + stoppedJobs + " orphaned jobs stopped ("
+                    + failedStops + " failed), " + removedSlaves + " slaves without a live job removed, took "
+                    + durationMillis + " ms";
+        }
+    }
+}
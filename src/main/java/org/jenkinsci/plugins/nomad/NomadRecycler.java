@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpSlaveAgentProtocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands the allocation of a non-reusable agent over to a fresh agent once its build completed, instead of
+ * stopping the allocation and scheduling a new one. The finished agent's workspaces are wiped, and the name and
+ * secret of the next agent are left for the agent loop the allocation's task runs, see {@link NomadApi#RECYCLE_FILE}.
+ * Removing the finished agent then ends its remoting process, and the loop starts the next one. The next agent gets the same launch watch and timeout as a new launch.
+ *
+ * An allocation is recycled up to its template's maximum, after which its last agent is removed and its job
+ * stopped as usual.
+ */
+final class NomadRecycler {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadRecycler.class.getName());
+
+    private NomadRecycler() {
+    }
+
+    /**
+     * Recycles the agent's allocation in the background if its template recycles agents and the completed build
+     * was the agent's last one.
+     */
+    static void taskCompleted(NomadComputer computer) {
+        NomadSlave slave = computer.getNode();
+        if (slave == null)
+            return;
+
+        NomadSlaveTemplate template = slave.getTemplate();
+        if (template == null || !template.isRecycling() || slave.getRecycles() >= template.getMaxRecycles())
+            return;
+
+        // The executor of the completed build still counts as busy
+        if (computer.countBusy() > 1)
+            return;
+
+        Computer.threadPoolForRemoting.submit(() -> recycle(computer, slave, template));
+    }
+
+    private static void recycle(NomadComputer computer, NomadSlave slave, NomadSlaveTemplate template) {
+        VirtualChannel channel = computer.getChannel();
+        if (channel == null || slave.getJobId() == null)
+            return;
+
+        String name = template.createSlaveName();
+        String secret = Jenkins.get().isUseSecurity() ? JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(name) : "";
+        int recycles = slave.getRecycles() + 1;
+
+        NomadSlave next = null;
+        try {
+            next = new NomadSlave(
+                    name,
+                    slave.getCloudName(),
+                    template,
+                    template.getLabels(),
+                    new NomadRetentionStrategy(template.getIdleTerminationInMinutes()),
+                    Collections.emptyList(),
+                    slave.getJobId(),
+                    slave.getAllocIndex(),
+                    slave.getParentJobId(),
+                    recycles
+            );
+            Jenkins.get().addNode(next);
+
+            FilePath workspaces = slave.getWorkspaceRoot();
+            if (workspaces != null)
+                workspaces.deleteRecursive();
+
+            new FilePath(channel, NomadApi.RECYCLE_FILE).write(secret.isEmpty() ? name : name + " " + secret, StandardCharsets.UTF_8.name());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to recycle the allocation of slave " + slave.getNodeName() + ", leaving it to be stopped", e);
+            // The allocation still runs the finished agent, so the next one is removed without stopping anything
+            if (next != null) {
+                try {
+                    Jenkins.get().removeNode(next);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Failed to remove slave " + name, ex);
+                }
+            }
+            return;
+        }
+
+        LOGGER.log(Level.INFO, "Recycling the allocation of slave " + slave.getNodeName() + " for slave " + name
+                + " (" + recycles + " of " + template.getMaxRecycles() + ")");
+        NomadCloud cloud = slave.getCloud();
+        if (cloud != null)
+            cloud.awaitRecycled(template, next);
+        slave.setRecycled();
+        try {
+            slave.terminate();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove slave " + slave.getNodeName(), e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.nomad;
 
 import hudson.model.Descriptor;
+import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.CloudRetentionStrategy;
 
 public class NomadRetentionStrategy extends CloudRetentionStrategy{
@@ -13,6 +14,15 @@ public class NomadRetentionStrategy extends CloudRetentionStrategy{
         super(Integer.parseInt(idleMinutes));
     }
 
+    @Override
+    public synchronized long check(AbstractCloudComputer c) {
+        // Agents kept by the warm pool are not terminated for being idle
+        if (c instanceof NomadComputer && ((NomadComputer) c).isHeldByWarmPool()) {
+            return 1;
+        }
+        return super.check(c);
+    }
+
     public static class DescriptorImpl extends Descriptor<hudson.slaves.RetentionStrategy<?>> {
         @Override
         public String getDisplayName() {
@@ -28,6 +28,27 @@ public class NomadSlave extends AbstractCloudSlave implements EphemeralNode {
     private final String cloudName;
     private final int idleTerminationInMinutes;
 
+    private transient NomadSlaveTemplate template;
+
+    // The prefix of the template this agent was started from, null if the agent was not created by this plugin
+    private final String templatePrefix;
+
+    // The Nomad job running this agent, and the allocation index within it for batched jobs
+    private volatile String jobId;
+    private final Integer allocIndex;
+
+    // The parameterized job this agent is dispatched from, if any
+    private final String parentJobId;
+
+    // Agents that ran in this agent's allocation before it
+    private final int recycles;
+
+    // Set once the allocation was handed over to the next agent, so terminating this one leaves it running
+    private volatile boolean recycled;
+
+    // Set once termination decided whether this is the last agent of its batch job
+    private transient volatile boolean terminating;
+
     public NomadSlave(
         String name,
         String cloudName,
@@ -35,6 +56,35 @@ public class NomadSlave extends AbstractCloudSlave implements EphemeralNode {
         String labelString,
         NomadRetentionStrategy retentionStrategy,
         List<? extends NodeProperty<?>> nodeProperties
+    ) throws Descriptor.FormException, IOException {
+        this(name, cloudName, template, labelString, retentionStrategy, nodeProperties, name, null, null);
+    }
+
+    public NomadSlave(
+        String name,
+        String cloudName,
+        NomadSlaveTemplate template,
+        String labelString,
+        NomadRetentionStrategy retentionStrategy,
+        List<? extends NodeProperty<?>> nodeProperties,
+        String jobId,
+        Integer allocIndex,
+        String parentJobId
+    ) throws Descriptor.FormException, IOException {
+        this(name, cloudName, template, labelString, retentionStrategy, nodeProperties, jobId, allocIndex, parentJobId, 0);
+    }
+
+    public NomadSlave(
+        String name,
+        String cloudName,
+        NomadSlaveTemplate template,
+        String labelString,
+        NomadRetentionStrategy retentionStrategy,
+        List<? extends NodeProperty<?>> nodeProperties,
+        String jobId,
+        Integer allocIndex,
+        String parentJobId,
+        int recycles
     ) throws Descriptor.FormException, IOException {
         super(
             name,
@@ -49,6 +99,12 @@ public class NomadSlave extends AbstractCloudSlave implements EphemeralNode {
         );
 
         this.cloudName = cloudName;
+        this.template = template;
+        this.templatePrefix = template.getPrefix();
+        this.jobId = jobId;
+        this.allocIndex = allocIndex;
+        this.parentJobId = parentJobId;
+        this.recycles = recycles;
 
         this.reusable = template.getReusable();
         this.idleTerminationInMinutes = template.getIdleTerminationInMinutes();
@@ -60,7 +116,12 @@ public class NomadSlave extends AbstractCloudSlave implements EphemeralNode {
         super(name, NODE_DESCRIPTION, remoteFS, numExecutors, mode, labelString, new JNLPLauncher(), new NomadRetentionStrategy(idleTerminationInMinutes), Collections.<NodeProperty<?>>emptyList());
 
         this.cloudName = cloudName;
+        this.templatePrefix = null;
         this.reusable = reusable;
+        this.jobId = name;
+        this.allocIndex = null;
+        this.parentJobId = null;
+        this.recycles = 0;
 
         this.idleTerminationInMinutes = Integer.parseInt(idleTerminationInMinutes);
     }
@@ -97,18 +158,117 @@ public class NomadSlave extends AbstractCloudSlave implements EphemeralNode {
 
     @Override
     protected void _terminate(TaskListener listener)  {
-        LOGGER.log(Level.INFO, "Asking Nomad to deregister slave '" + getNodeName() + "'");
-        getCloud().Nomad().stopSlave(getNodeName(), getCloud().getNomadACL());
+        NomadCloud cloud = getCloud();
+        NomadTerminationQueue terminations = cloud.getTerminationQueue();
+
+        if (recycled) {
+            LOGGER.log(Level.INFO, "Nomad job '" + getJobId() + "' of slave '" + getNodeName() + "' runs the next slave");
+        } else if (parentJobId != null) {
+            if (jobId == null) {
+                LOGGER.log(Level.INFO, "Asking Nomad to deregister the job dispatched from '" + parentJobId + "' for slave '" + getNodeName() + "'");
+                terminations.stopDispatched(parentJobId, getNodeName());
+            } else if (!cloud.isJobDead(jobId)) {
+                LOGGER.log(Level.INFO, "Asking Nomad to deregister dispatched job '" + jobId + "' of slave '" + getNodeName() + "'");
+                terminations.stopJob(jobId);
+            } else if (cloud.getPurgeJobs()) {
+                LOGGER.log(Level.INFO, "Asking Nomad to purge dead dispatched job '" + jobId + "' of slave '" + getNodeName() + "'");
+                terminations.stopJob(jobId);
+            }
+        } else if (cloud.isJobDead(getJobId())) {
+            // A dead job stays in Nomad's state until its garbage collection unless it is purged
+            if (cloud.getPurgeJobs()) {
+                LOGGER.log(Level.INFO, "Asking Nomad to purge dead job '" + getJobId() + "' of slave '" + getNodeName() + "'");
+                terminations.stopJob(getJobId());
+            } else {
+                LOGGER.log(Level.INFO, "Nomad job '" + getJobId() + "' of slave '" + getNodeName() + "' is dead already");
+            }
+        } else if (allocIndex == null) {
+            LOGGER.log(Level.INFO, "Asking Nomad to deregister slave '" + getNodeName() + "'");
+            terminations.stopJob(getJobId());
+        } else if (!cloud.isLastSlaveOfJob(getJobId(), this)) {
+            // The agent exits once disconnected, which completes its allocation without Nomad replacing it
+            LOGGER.log(Level.INFO, "Leaving allocation " + allocIndex + " of job '" + getJobId() + "' to complete after slave '" + getNodeName() + "' is removed");
+        } else {
+            LOGGER.log(Level.INFO, "Asking Nomad to deregister job '" + getJobId() + "' of last batched slave '" + getNodeName() + "'");
+            terminations.stopJob(getJobId());
+        }
     }
 
     public NomadCloud getCloud() {
         return (NomadCloud) Jenkins.get().getCloud(cloudName);
     }
 
+    /**
+     * The template this agent was started from, resolved by its name if the agent was not created by this plugin.
+     */
+    public NomadSlaveTemplate getTemplate() {
+        if (template == null) {
+            NomadCloud cloud = getCloud();
+            if (cloud != null)
+                template = templatePrefix != null ? cloud.getTemplateByPrefix(templatePrefix) : cloud.getTemplateOf(getNodeName());
+        }
+        return template;
+    }
+
+    /**
+     * The prefix of the template this agent was started from, or null if it is not known.
+     */
+    String getTemplatePrefix() {
+        if (templatePrefix != null)
+            return templatePrefix;
+        NomadSlaveTemplate own = getTemplate();
+        return own == null ? null : own.getPrefix();
+    }
+
+    /**
+     * Whether this agent was started from the given template. Templates are told apart by their prefix, which
+     * stays the same when saving the configuration replaces the template instances.
+     */
+    boolean isOfTemplate(NomadSlaveTemplate template) {
+        return template.getPrefix().equals(getTemplatePrefix());
+    }
+
     public String getCloudName() {
         return cloudName;
     }
 
+    /**
+     * The Nomad job running this agent, or null for a dispatched agent whose child job is not known yet.
+     */
+    public String getJobId() {
+        if (jobId == null && parentJobId == null)
+            return getNodeName();
+        return jobId;
+    }
+
+    void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getParentJobId() {
+        return parentJobId;
+    }
+
+    public Integer getAllocIndex() {
+        return allocIndex;
+    }
+
+    public int getRecycles() {
+        return recycles;
+    }
+
+    void setTerminating() {
+        this.terminating = true;
+    }
+
+    boolean isTerminating() {
+        return terminating;
+    }
+
+    void setRecycled() {
+        this.recycled = true;
+    }
+
     public Boolean getReusable() {
         return reusable;
     }
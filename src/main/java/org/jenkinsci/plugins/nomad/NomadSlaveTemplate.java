@@ -9,15 +9,29 @@ import hudson.model.Node;
 import hudson.model.labels.LabelAtom;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
 
 import java.io.File;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class NomadSlaveTemplate implements Describable<NomadSlaveTemplate> {
 
     private static final String SLAVE_PREFIX = "jenkins";
+
+    public static final String LAUNCH_MODE_JOB = "job";
+    public static final String LAUNCH_MODE_BATCH = "batch";
+    public static final String LAUNCH_MODE_DISPATCH = "dispatch";
+
+    private static final int DEFAULT_BATCH_WINDOW_IN_MILLIS = 500;
+    private static final int DEFAULT_RESTART_DELAY_SECONDS = 1;
+    private static final int DEFAULT_RESCHEDULE_DELAY_SECONDS = 5;
     private static final Logger LOGGER = Logger.getLogger(NomadSlaveTemplate.class.getName());
 
     private final int idleTerminationInMinutes;
@@ -51,6 +65,25 @@ public class NomadSlaveTemplate implements Describable<NomadSlaveTemplate> {
     private final String agentDir;//where agent.jar download and run
 
 
+    private String launchMode;
+    private Integer batchWindowInMillis;
+    private int minIdle;
+    private int maxIdle;
+    private int launchRatePerMinute;
+    private int launchBurst;
+    private int maxInstances;
+    private int maxExecutors;
+
+    // Builds the allocation of a non-reusable docker agent runs as fresh agents after its first, 0 for none
+    private int maxRecycles;
+
+    // Retries Nomad makes next to a failed agent, restarting its task in place or rescheduling its allocation
+    private int restartAttempts;
+    private Integer restartDelaySeconds;
+    private int rescheduleAttempts;
+    private Integer rescheduleDelaySeconds;
+    private boolean preferOtherNode;
+
     private String driver;
     private String datacenters;
     private Set<LabelAtom> labelSet;
@@ -139,6 +172,99 @@ public class NomadSlaveTemplate implements Describable<NomadSlaveTemplate> {
     }
 
 
+    @DataBoundSetter
+    public void setLaunchMode(String launchMode) {
+        this.launchMode = launchMode;
+    }
+
+    @DataBoundSetter
+    public void setBatchWindowInMillis(String batchWindowInMillis) {
+        this.batchWindowInMillis = parseNonNegative(batchWindowInMillis, "batch window");
+    }
+
+    @DataBoundSetter
+    public void setMinIdle(String minIdle) {
+        Integer parsed = parseNonNegative(minIdle, "minimum idle agents");
+        this.minIdle = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setMaxIdle(String maxIdle) {
+        Integer parsed = parseNonNegative(maxIdle, "maximum idle agents");
+        this.maxIdle = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setLaunchRatePerMinute(String launchRatePerMinute) {
+        Integer parsed = parseNonNegative(launchRatePerMinute, "launch rate");
+        this.launchRatePerMinute = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setLaunchBurst(String launchBurst) {
+        Integer parsed = parseNonNegative(launchBurst, "launch burst");
+        this.launchBurst = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setMaxInstances(String maxInstances) {
+        Integer parsed = parseNonNegative(maxInstances, "maximum instances");
+        this.maxInstances = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setMaxExecutors(String maxExecutors) {
+        Integer parsed = parseNonNegative(maxExecutors, "maximum executors");
+        this.maxExecutors = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setMaxRecycles(String maxRecycles) {
+        Integer parsed = parseNonNegative(maxRecycles, "maximum recycles");
+        this.maxRecycles = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setRestartAttempts(String restartAttempts) {
+        Integer parsed = parseNonNegative(restartAttempts, "restart attempts");
+        this.restartAttempts = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setRestartDelaySeconds(String restartDelaySeconds) {
+        this.restartDelaySeconds = parseNonNegative(restartDelaySeconds, "restart delay");
+    }
+
+    @DataBoundSetter
+    public void setRescheduleAttempts(String rescheduleAttempts) {
+        Integer parsed = parseNonNegative(rescheduleAttempts, "reschedule attempts");
+        this.rescheduleAttempts = parsed != null ? parsed : 0;
+    }
+
+    @DataBoundSetter
+    public void setRescheduleDelaySeconds(String rescheduleDelaySeconds) {
+        this.rescheduleDelaySeconds = parseNonNegative(rescheduleDelaySeconds, "reschedule delay");
+    }
+
+    @DataBoundSetter
+    public void setPreferOtherNode(boolean preferOtherNode) {
+        this.preferOtherNode = preferOtherNode;
+    }
+
+    private static Integer parseNonNegative(String value, String setting) {
+        if (StringUtils.isBlank(value))
+            return null;
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= 0)
+                return parsed;
+        } catch (NumberFormatException ex) {
+            // Logged below
+        }
+        LOGGER.log(Level.WARNING, "Failed to parse " + setting + " '" + value + "', using the default");
+        return null;
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<NomadSlaveTemplate> {
 
@@ -150,6 +276,88 @@ public class NomadSlaveTemplate implements Describable<NomadSlaveTemplate> {
         public String getDisplayName() {
             return null;
         }
+
+        public ListBoxModel doFillLaunchModeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("One job per agent", LAUNCH_MODE_JOB);
+            items.add("Batched jobs (TaskGroup Count=N)", LAUNCH_MODE_BATCH);
+            items.add("Dispatch from a parameterized job", LAUNCH_MODE_DISPATCH);
+            return items;
+        }
+
+        @POST
+        public FormValidation doCheckBatchWindowInMillis(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckMinIdle(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckMaxIdle(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckLaunchRatePerMinute(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckLaunchBurst(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckMaxInstances(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckMaxExecutors(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckMaxRecycles(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckRestartAttempts(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckRestartDelaySeconds(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckRescheduleAttempts(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        @POST
+        public FormValidation doCheckRescheduleDelaySeconds(@QueryParameter String value) {
+            return checkNonNegative(value);
+        }
+
+        // Blank stands for the default
+        private static FormValidation checkNonNegative(String value) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (StringUtils.isBlank(value))
+                return FormValidation.ok();
+            try {
+                if (Integer.parseInt(value.trim()) >= 0)
+                    return FormValidation.ok();
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Must be a whole number");
+            }
+            return FormValidation.error("Must not be negative");
+        }
     }
 
     @Override
@@ -299,4 +507,119 @@ public class NomadSlaveTemplate implements Describable<NomadSlaveTemplate> {
     public String getAgentDir() {
         return agentDir;
     }
+
+    public String getLaunchMode() {
+        if (StringUtils.isEmpty(launchMode))
+            return LAUNCH_MODE_JOB;
+        return launchMode;
+    }
+
+    public boolean isBatchLaunch() {
+        return LAUNCH_MODE_BATCH.equals(getLaunchMode());
+    }
+
+    public boolean isDispatchLaunch() {
+        return LAUNCH_MODE_DISPATCH.equals(getLaunchMode());
+    }
+
+    /**
+     * Number of idle agents the warm pool keeps connected for this template, 0 to disable the pool.
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Number of idle agents above which the warm pool terminates idle agents right away, 0 for no limit.
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Agents of this template launched per minute at most, 0 for no limit.
+     */
+    public int getLaunchRatePerMinute() {
+        return launchRatePerMinute;
+    }
+
+    /**
+     * Agents of this template launched at once before the rate limit applies.
+     */
+    public int getLaunchBurst() {
+        return Math.max(1, launchBurst);
+    }
+
+    /**
+     * Agents of this template at most, launching or not, 0 for no limit.
+     */
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    /**
+     * Executors of this template's agents at most, launching or not, 0 for no limit.
+     */
+    public int getMaxExecutors() {
+        return maxExecutors;
+    }
+
+    /**
+     * How many times the allocation of a non-reusable agent is recycled for a fresh agent after a build, 0 to
+     * stop it after its first build.
+     */
+    public int getMaxRecycles() {
+        return maxRecycles;
+    }
+
+    /**
+     * Whether agents of this template are recycled instead of stopped after a build. Only docker agents run the
+     * loop that starts the next agent in the same allocation.
+     */
+    public boolean isRecycling() {
+        return maxRecycles > 0 && Boolean.FALSE.equals(reusable) && isDockerDriver();
+    }
+
+    /**
+     * How many times Nomad restarts a failed agent task in its allocation, 0 for none. Not used when a different
+     * node is preferred.
+     */
+    public int getRestartAttempts() {
+        return restartAttempts;
+    }
+
+    /**
+     * Seconds Nomad waits before restarting a failed agent task, 1 by default.
+     */
+    public int getRestartDelaySeconds() {
+        return restartDelaySeconds != null ? restartDelaySeconds : DEFAULT_RESTART_DELAY_SECONDS;
+    }
+
+    /**
+     * How many times Nomad reschedules a failed agent allocation, 0 for none.
+     */
+    public int getRescheduleAttempts() {
+        return rescheduleAttempts;
+    }
+
+    /**
+     * Seconds Nomad waits before rescheduling a failed agent allocation, 5 by default.
+     */
+    public int getRescheduleDelaySeconds() {
+        return rescheduleDelaySeconds != null ? rescheduleDelaySeconds : DEFAULT_RESCHEDULE_DELAY_SECONDS;
+    }
+
+    /**
+     * Whether a failed agent is rescheduled, which Nomad places away from the node it failed on, rather than
+     * restarted on the same node.
+     */
+    public boolean isPreferOtherNode() {
+        return preferOtherNode;
+    }
+
+    public int getBatchWindowInMillis() {
+        if (batchWindowInMillis == null)
+            return DEFAULT_BATCH_WINDOW_IN_MILLIS;
+        return batchWindowInMillis;
+    }
 }
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves labels to the first template of a cloud that serves them.
+ *
+ * Single label atoms are looked up in an index built once from the templates' label sets. Label expressions are
+ * matched against every template on first use and remembered afterwards. A resolver is built for one template
+ * configuration and replaced as a whole when the configuration changes.
+ */
+final class NomadTemplateResolver {
+
+    private final List<NomadSlaveTemplate> templates;
+    private final List<Set<LabelAtom>> labelSets;
+
+    // The first template carrying each atom, and the first one without any label
+    private final Map<LabelAtom, NomadSlaveTemplate> byAtom = new HashMap<>();
+    private final NomadSlaveTemplate unlabeled;
+
+    private final ConcurrentMap<Label, Optional<NomadSlaveTemplate>> resolved = new ConcurrentHashMap<>();
+
+    NomadTemplateResolver(List<? extends NomadSlaveTemplate> templates) {
+        this.templates = new ArrayList<>(templates);
+        this.labelSets = new ArrayList<>(templates.size());
+
+        NomadSlaveTemplate firstUnlabeled = null;
+        for (NomadSlaveTemplate template : templates) {
+            Set<LabelAtom> labelSet = template.getLabelSet();
+            if (labelSet == null)
+                labelSet = Collections.emptySet();
+            labelSets.add(labelSet);
+
+            if (labelSet.isEmpty() && firstUnlabeled == null)
+                firstUnlabeled = template;
+            for (LabelAtom atom : labelSet) {
+                byAtom.putIfAbsent(atom, template);
+            }
+        }
+        this.unlabeled = firstUnlabeled;
+    }
+
+    NomadSlaveTemplate resolve(Label label) {
+        if (label == null)
+            return unlabeled;
+
+        if (label instanceof LabelAtom)
+            return byAtom.get(label);
+
+        return resolved.computeIfAbsent(label, l -> Optional.ofNullable(match(l))).orElse(null);
+    }
+
+    /**
+     * Matches the label against every template in order, without using the index or the cache.
+     */
+    NomadSlaveTemplate match(Label label) {
+        for (int i = 0; i < templates.size(); i++) {
+            Set<LabelAtom> labelSet = labelSets.get(i);
+            if (label == null && !labelSet.isEmpty()) {
+                continue;
+            }
+            if ((label == null && labelSet.isEmpty()) || (label != null && label.matches(labelSet))) {
+                return templates.get(i);
+            }
+        }
+        return null;
+    }
+}
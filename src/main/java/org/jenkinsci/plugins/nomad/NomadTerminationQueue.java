@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Computer;
+import jenkins.util.Timer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops the Nomad jobs of a cloud's terminated agents in the background. Stops wait in a queue
+ * that at most a bounded number of concurrent stops drain, so a mass scale-down neither blocks the terminating
+ * threads nor floods Nomad.
+ *
+ * A stop that is already queued or in flight is not queued again. Failed stops are queued again after a
+ * growing delay, up to a number of attempts. A job or allocation that is gone counts as stopped.
+ */
+final class NomadTerminationQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadTerminationQueue.class.getName());
+
+    static final int MAX_PARALLEL = Integer.getInteger(NomadTerminationQueue.class.getName() + ".maxParallel", 16);
+    static final int MAX_ATTEMPTS = Integer.getInteger(NomadTerminationQueue.class.getName() + ".maxAttempts", 5);
+
+    private static final long RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RETRY_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final NomadCloud cloud;
+
+    // Stops queued, in flight or waiting to be retried, by what they stop
+    private final Map<String, Stop> stops = new HashMap<>();
+    private final Deque<Stop> queued = new ArrayDeque<>();
+    private int running;
+
+    NomadTerminationQueue(NomadCloud cloud) {
+        this.cloud = cloud;
+    }
+
+    /**
+     * Deregisters the job, purging it from Nomad's state if the cloud is configured to.
+     */
+    CompletableFuture<Void> stopJob(String jobId) {
+        return enqueue(jobId, "deregister job " + jobId,
+                () -> cloud.Nomad().stopSlave(jobId, cloud.getPurgeJobs()));
+    }
+
+    /**
+     * Deregisters the job dispatched from the given parameterized job for the agent, once it is found.
+     */
+    CompletableFuture<Void> stopDispatched(String parentId, String slaveName) {
+        return enqueue(parentId + "/" + slaveName, "deregister the job dispatched from " + parentId + " for slave " + slaveName,
+                () -> CompletableFuture.supplyAsync(() -> cloud.findDispatchedJob(parentId, slaveName), Computer.threadPoolForRemoting)
+                        .thenCompose(jobId -> jobId == null || (cloud.isJobDead(jobId) && !cloud.getPurgeJobs())
+                                ? CompletableFuture.completedFuture(null)
+                                : cloud.Nomad().stopSlave(jobId, cloud.getPurgeJobs())));
+    }
+
+    /**
+     * Number of stops queued, in flight or waiting to be retried.
+     */
+    synchronized int getPending() {
+        return stops.size();
+    }
+
+    private synchronized CompletableFuture<Void> enqueue(String key, String operation, Supplier<CompletableFuture<?>> action) {
+        Stop known = stops.get(key);
+        if (known != null)
+            return known.done;
+
+        Stop stop = new Stop(key, operation, action);
+        stops.put(key, stop);
+        queued.add(stop);
+        drain();
+        return stop.done;
+    }
+
+    // Stops are started on the timer's threads, so stops failing right away do not recurse into each other
+    private synchronized void drain() {
+        List<Stop> started = new ArrayList<>();
+        while (running < MAX_PARALLEL && !queued.isEmpty()) {
+            running++;
+            started.add(queued.poll());
+        }
+        for (Stop stop : started) {
+            Timer.get().submit(() -> run(stop));
+        }
+    }
+
+    private void run(Stop stop) {
+        stop.attempts++;
+        CompletableFuture<?> outcome;
+        try {
+            outcome = stop.action.get();
+        } catch (RuntimeException e) {
+            outcome = NomadApi.failed(e);
+        }
+        outcome.whenComplete((r, e) -> finished(stop, e));
+    }
+
+    private synchronized void finished(Stop stop, Throwable e) {
+        running--;
+        Throwable cause = e == null ? null : NomadApi.unwrap(e);
+
+        if (cause == null || (cause instanceof NomadApiException && ((NomadApiException) cause).isNotFound())) {
+            stops.remove(stop.key);
+            stop.done.complete(null);
+        } else if (stop.attempts < MAX_ATTEMPTS) {
+            long delay = Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << (stop.attempts - 1));
+            LOGGER.log(Level.FINE, "Failed to " + stop.operation + ", retrying in " + delay + " ms", cause);
+            Timer.get().schedule(() -> retry(stop), delay, TimeUnit.MILLISECONDS);
+        } else {
+            LOGGER.log(Level.SEVERE, "Failed to " + stop.operation + " after " + stop.attempts + " attempts", cause);
+            stops.remove(stop.key);
+            stop.done.completeExceptionally(cause);
+        }
+        drain();
+    }
+
+    private synchronized void retry(Stop stop) {
+        queued.add(stop);
+        drain();
+    }
+
+    private static final class Stop {
+        private final String key;
+        private final String operation;
+        private final Supplier<CompletableFuture<?>> action;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private int attempts;
+
+        Stop(String key, String operation, Supplier<CompletableFuture<?>> action) {
+            this.key = key;
+            this.operation = operation;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps {@link NomadSlaveTemplate#getMinIdle()} agents per template scheduled and connected, so queued builds
+ * can take an agent without waiting for a cold start, and trims idle agents above {@link NomadSlaveTemplate#getMaxIdle()}.
+ *
+ * The pool is topped up periodically and right after one of its agents accepts a task.
+ */
+@Extension
+public class NomadWarmPool extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(NomadWarmPool.class.getName());
+
+    private static final long RECURRENCE_PERIOD = Long.getLong(NomadWarmPool.class.getName() + ".recurrencePeriod", TimeUnit.SECONDS.toMillis(30));
+
+    public NomadWarmPool() {
+        super("Nomad warm pool");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof NomadCloud) {
+                for (NomadSlaveTemplate template : ((NomadCloud) cloud).getTemplates()) {
+                    replenish((NomadCloud) cloud, template);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asynchronously refills the pool of the given agent's template after the agent was taken by a build.
+     */
+    static void consumed(final NomadSlave slave) {
+        final NomadSlaveTemplate template = slave.getTemplate();
+        final NomadCloud cloud = slave.getCloud();
+
+        if (template == null || cloud == null || template.getMinIdle() <= 0)
+            return;
+
+        Computer.threadPoolForRemoting.submit(() -> replenish(cloud, template));
+    }
+
+    static synchronized void replenish(NomadCloud cloud, NomadSlaveTemplate template) {
+        int minIdle = template.getMinIdle();
+        int maxIdle = template.getMaxIdle();
+
+        if (minIdle <= 0 && maxIdle <= 0)
+            return;
+
+        List<NomadComputer> idle = cloud.getIdleComputers(template);
+
+        int missing = minIdle - idle.size() - cloud.getWarming(template);
+        if (missing > 0 && cloud.isNomadAvailable() && !cloud.isRestoring()) {
+            LOGGER.log(Level.INFO, "Warm pool of template " + template.getPrefix() + " is " + missing + " agents short, provisioning");
+            cloud.provisionWarm(template, missing);
+        }
+
+        if (maxIdle > 0 && idle.size() > maxIdle) {
+            for (final NomadComputer computer : idle.subList(maxIdle, idle.size())) {
+                computer.setAcceptingTasks(false);
+                if (!computer.isIdle()) {
+                    computer.setAcceptingTasks(true);
+                    continue;
+                }
+
+                final NomadSlave slave = computer.getNode();
+                if (slave == null)
+                    continue;
+
+                LOGGER.log(Level.INFO, "Warm pool of template " + template.getPrefix() + " exceeds " + maxIdle + " idle agents, terminating " + slave.getNodeName());
+                Computer.threadPoolForRemoting.submit(() -> {
+                    slave.terminate();
+                    return null;
+                });
+            }
+        }
+    }
+}
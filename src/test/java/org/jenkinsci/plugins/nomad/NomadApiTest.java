@@ -1,13 +1,29 @@
 package org.jenkinsci.plugins.nomad;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import hudson.model.Node;
+import okio.Buffer;
+import org.jenkinsci.plugins.nomad.Api.Job;
+import org.jenkinsci.plugins.nomad.Api.JobInfo;
+import org.jenkinsci.plugins.nomad.Api.JobRegisterResponse;
+import org.jenkinsci.plugins.nomad.Api.NomadJson;
+import org.jenkinsci.plugins.nomad.Api.TaskGroup;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -54,4 +70,129 @@ public class NomadApiTest {
         assertTrue(job.contains("\"cap_drop\":[\"SYS_ADMIN\",\"SYSLOG\"]"));
     }
 
+    @Test
+    public void testTypeAdaptersMatchReflectiveOutput() throws IOException {
+        NomadSlaveTemplate template = new NomadSlaveTemplate(
+                "test", "300", "256", "100",
+                "label", Collections.singletonList(new NomadConstraintTemplate("${attr.kernel.name}", "=", "linux")),
+                "remoteFs", false, "3", true, "1", Node.Mode.NORMAL,
+                "ams", "0", "image", "dc01,dc02", "user", "pass<&>", true, "host",
+                "echo 'hi'", false, "", null, Collections.singletonList(new NomadPortTemplate("http", "8080")),
+                "", "", "", "/local/"
+        );
+        Job job = nomadApi.buildJob("slave-1", "secret=", nomadCloud, template);
+
+        assertEquals(new Gson().toJson(job), NomadJson.GSON.toJson(job));
+
+        Buffer sink = new Buffer();
+        JsonWriter writer = NomadJson.GSON.newJsonWriter(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+        NomadJson.GSON.toJson(job, Job.class, writer);
+        writer.flush();
+        assertEquals(new Gson().toJson(job), sink.readUtf8());
+
+        String jobs = "[{\"ID\":\"jenkins-1\",\"ParentID\":\"\",\"Name\":\"jenkins-1\",\"Type\":\"batch\",\"Priority\":50,"
+                + "\"Status\":\"running\",\"JobSummary\":{\"Summary\":{}},\"CreateIndex\":7}]";
+        JobInfo[] infos = NomadJson.GSON.fromJson(new StringReader(jobs), JobInfo[].class);
+        assertEquals(new Gson().toJson(new Gson().fromJson(jobs, JobInfo[].class)), NomadJson.GSON.toJson(infos));
+    }
+
+    @Test
+    public void testJobSkeletonMatchesFullBuild() {
+        String expected = new Gson().toJson(nomadApi.buildJob("slave-2", "s3cr\"et", nomadCloud, slaveTemplate));
+
+        nomadApi.buildSlaveJob("slave-1", "secret", nomadCloud, slaveTemplate);
+        assertEquals(expected, nomadApi.buildSlaveJob("slave-2", "s3cr\"et", nomadCloud, slaveTemplate));
+
+        String unsecured = new Gson().toJson(nomadApi.buildJob("slave-3", "", nomadCloud, slaveTemplate));
+        assertEquals(unsecured, nomadApi.buildSlaveJob("slave-3", "", nomadCloud, slaveTemplate));
+    }
+
+    @Test
+    public void testRecyclingAgentsRunInLoop() {
+        NomadSlaveTemplate template = new NomadSlaveTemplate(
+                "test", "300", "256", "100",
+                null, constraintTest, "remoteFs", false, "3", false, "1", Node.Mode.NORMAL,
+                "ams", "0", "image", "dc01", "", "", false, "bridge",
+                "", true, "", "jenkins", new ArrayList<NomadPortTemplate>() {},
+                "", "", "", "/local/"
+        );
+        template.setMaxRecycles("3");
+
+        Map<String, Object> config = nomadApi.buildJob("slave-1", "secret", nomadCloud, template)
+                .getTaskGroups()[0].getTasks()[0].getConfig();
+        List<?> args = (List<?>) config.get("args");
+
+        assertEquals("/bin/bash", config.get("command"));
+        assertEquals("-c", args.get(0));
+        assertTrue(((String) args.get(1)).startsWith("name=\"$1\"; secret=\"$2\"; while true; do "));
+        assertTrue(((String) args.get(1)).contains(" \"$secret\" \"$name\"; "));
+        assertTrue(((String) args.get(1)).contains("read -r name secret < " + NomadApi.RECYCLE_FILE));
+        assertEquals(Arrays.asList("jenkins-agent", "slave-1", "secret"), args.subList(2, 5));
+    }
+
+    @Test
+    public void testBatchedAgentsExitOnDisconnect() {
+        NomadSlaveTemplate template = new NomadSlaveTemplate(
+                "test", "300", "256", "100",
+                null, constraintTest, "remoteFs", false, "3", false, "1", Node.Mode.NORMAL,
+                "ams", "0", "image", "dc01", "", "", false, "bridge",
+                "", true, "", "jenkins", new ArrayList<NomadPortTemplate>() {},
+                "", "", "", "/local/"
+        );
+
+        List<?> batched = (List<?>) nomadApi.buildJob("slave-1", "secret", nomadCloud, template, true)
+                .getTaskGroups()[0].getTasks()[0].getConfig().get("args");
+        List<?> single = (List<?>) nomadApi.buildJob("slave-1", "secret", nomadCloud, template)
+                .getTaskGroups()[0].getTasks()[0].getConfig().get("args");
+
+        assertTrue(batched.contains("-noreconnect"));
+        assertFalse(single.contains("-noreconnect"));
+    }
+
+    @Test
+    public void testRestartAndReschedulePolicies() {
+        TaskGroup group = nomadApi.buildJob("slave-1", "secret", nomadCloud, slaveTemplate).getTaskGroups()[0];
+        assertEquals(Integer.valueOf(0), group.getRestartPolicy().getAttempts());
+        assertEquals(Long.valueOf(10000000000L), group.getRestartPolicy().getInterval());
+        assertEquals(Long.valueOf(1000000000L), group.getRestartPolicy().getDelay());
+        assertEquals("fail", group.getRestartPolicy().getMode());
+        assertEquals(Integer.valueOf(0), group.getReschedulePolicy().getAttempts());
+
+        NomadSlaveTemplate template = new NomadSlaveTemplate(
+                "test", "300", "256", "100",
+                null, constraintTest, "remoteFs", false, "3", false, "1", Node.Mode.NORMAL,
+                "ams", "0", "image", "dc01", "", "", false, "bridge",
+                "", true, "", "jenkins", new ArrayList<NomadPortTemplate>() {},
+                "", "", "", "/local/"
+        );
+        template.setRestartAttempts("3");
+        template.setRestartDelaySeconds("5");
+        template.setRescheduleAttempts("2");
+        template.setRescheduleDelaySeconds("10");
+
+        group = nomadApi.buildJob("slave-1", "secret", nomadCloud, template).getTaskGroups()[0];
+        assertEquals(Integer.valueOf(3), group.getRestartPolicy().getAttempts());
+        assertEquals(Long.valueOf(20000000000L), group.getRestartPolicy().getInterval());
+        assertEquals(Long.valueOf(5000000000L), group.getRestartPolicy().getDelay());
+        assertEquals(Integer.valueOf(2), group.getReschedulePolicy().getAttempts());
+        assertEquals(Long.valueOf(10000000000L), group.getReschedulePolicy().getDelay());
+        assertEquals(Boolean.FALSE, group.getReschedulePolicy().getUnlimited());
+
+        template.setPreferOtherNode(true);
+        group = nomadApi.buildJob("slave-1", "secret", nomadCloud, template).getTaskGroups()[0];
+        assertEquals(Integer.valueOf(0), group.getRestartPolicy().getAttempts());
+        assertEquals(Integer.valueOf(2), group.getReschedulePolicy().getAttempts());
+    }
+
+    @Test
+    public void testRegisterResponseIsParsed() {
+        String json = "{\"EvalID\":\"d092fdc0-e1fd-2536-67d8-43af8ca798ac\",\"EvalCreateIndex\":35,\"JobModifyIndex\":34,"
+                + "\"Warnings\":\"\",\"Index\":35,\"LastContact\":0,\"KnownLeader\":false}";
+        JobRegisterResponse response = NomadJson.GSON.fromJson(json, JobRegisterResponse.class);
+
+        assertEquals("d092fdc0-e1fd-2536-67d8-43af8ca798ac", response.getEvalID());
+        assertEquals(Long.valueOf(35), response.getEvalCreateIndex());
+        assertEquals(Long.valueOf(34), response.getJobModifyIndex());
+    }
+
 }
@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.nomad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NomadCircuitBreakerTest {
+
+    private NomadCircuitBreaker breaker = new NomadCircuitBreaker("http://localhost");
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        for (int i = 0; i < NomadCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertFalse(breaker.isOpen());
+
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(NomadCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        for (int i = 0; i < NomadCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        breaker.recordSuccess();
+        breaker.recordFailure();
+
+        assertFalse(breaker.isOpen());
+        assertEquals(NomadCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
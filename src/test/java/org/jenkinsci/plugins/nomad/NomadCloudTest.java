@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
@@ -47,4 +48,25 @@ public class NomadCloudTest {
         Assert.assertEquals(plannedNodes.size(), workload);
     }
 
+    @Test
+    public void testTemplateOfLongestPrefix() {
+        NomadSlaveTemplate jenkins = Mockito.mock(NomadSlaveTemplate.class);
+        NomadSlaveTemplate java = Mockito.mock(NomadSlaveTemplate.class);
+        Mockito.when(jenkins.getPrefix()).thenReturn("jenkins");
+        Mockito.when(java.getPrefix()).thenReturn("jenkins-java");
+        NomadCloud cloud = new NomadCloud("nomad", "nomadUrl", "jenkinsTunnel", "slaveUrl", "1", "", false,
+                Arrays.asList(jenkins, java));
+
+        Assert.assertSame(java, cloud.getTemplateOf("jenkins-java-abc"));
+        Assert.assertSame(jenkins, cloud.getTemplateOf("jenkins-abc"));
+        Assert.assertNull(cloud.getTemplateOf("build-abc"));
+    }
+
+    @Test
+    public void testCoveringPrefixes() {
+        Assert.assertEquals(Arrays.asList("build", "jenkins"),
+                NomadCloud.coveringPrefixes(Arrays.asList("jenkins-docker", "build", "jenkins", "build-large")));
+        Assert.assertEquals(Arrays.asList("a", "b"), NomadCloud.coveringPrefixes(Arrays.asList("b", "a", "b")));
+    }
+
 }
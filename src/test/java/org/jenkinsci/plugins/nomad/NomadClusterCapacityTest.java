@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.nomad;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NomadClusterCapacityTest {
+
+    private static final String NODE = "{\"ID\":\"n1\",\"Name\":\"client-1\",\"Datacenter\":\"dc1\",\"NodeClass\":\"build\","
+            + "\"Attributes\":{\"kernel.name\":\"linux\",\"driver.docker\":\"1\",\"cpu.numcores\":\"8\"},\"Meta\":null,"
+            + "\"NodeResources\":{\"Cpu\":{\"CpuShares\":4000},\"Memory\":{\"MemoryMB\":8192},\"Disk\":{\"DiskMB\":10000}},"
+            + "\"ReservedResources\":{\"Cpu\":{\"CpuShares\":500},\"Memory\":{\"MemoryMB\":192},\"Disk\":{\"DiskMB\":0}}}";
+
+    private static final String LISTED_NODE = "{\"ID\":\"n2\",\"Name\":\"client-2\",\"Datacenter\":\"dc1\",\"NodeClass\":\"build\","
+            + "\"Drivers\":{\"docker\":{\"Detected\":true,\"Healthy\":true},\"exec\":{\"Detected\":false,\"Healthy\":false}},"
+            + "\"NodeResources\":{\"Cpu\":{\"CpuShares\":4000},\"Memory\":{\"MemoryMB\":8192},\"Disk\":{\"DiskMB\":10000}},"
+            + "\"ReservedResources\":{\"Cpu\":{\"CpuShares\":500},\"Memory\":{\"MemoryMB\":192},\"Disk\":{\"DiskMB\":0}}}";
+
+    private static final String ALLOCATION = "{\"NodeID\":\"n1\",\"ClientStatus\":\"running\",\"AllocatedResources\":"
+            + "{\"Tasks\":{\"build\":{\"Cpu\":{\"CpuShares\":1500},\"Memory\":{\"MemoryMB\":4000}}},\"Shared\":{\"DiskMB\":300}}}";
+
+    private NomadClusterCapacity.NodeCapacity node = new NomadClusterCapacity.NodeCapacity(parse(NODE));
+
+    @Test
+    public void testPlacesOnlyWhatFits() {
+        node.allocate(parse(ALLOCATION));
+        NomadSlaveTemplate template = template(1000, 2000, "dc1");
+
+        // 2000 MHz and 4000 MB left
+        assertTrue(node.fits(template));
+        node.take(template);
+        assertTrue(node.fits(template));
+        node.take(template);
+        assertFalse(node.fits(template));
+    }
+
+    @Test
+    public void testMatchesDatacentersAndDriver() {
+        assertTrue(node.matches(template(100, 100, "dc2, dc1")));
+        assertTrue(node.matches(template(100, 100, "dc*")));
+        assertFalse(node.matches(template(100, 100, "dc2")));
+    }
+
+    @Test
+    public void testEvaluatesConstraints() {
+        assertTrue(node.satisfies(new NomadConstraintTemplate("${attr.kernel.name}", "=", "linux")));
+        assertFalse(node.satisfies(new NomadConstraintTemplate("${attr.kernel.name}", "!=", "linux")));
+        assertTrue(node.satisfies(new NomadConstraintTemplate("${attr.cpu.numcores}", ">=", "4")));
+        assertTrue(node.satisfies(new NomadConstraintTemplate("${node.class}", "regexp", "^bu")));
+        assertFalse(node.satisfies(new NomadConstraintTemplate("${meta.rack}", "=", "r1")));
+        // Left to Nomad
+        assertTrue(node.satisfies(new NomadConstraintTemplate("${attr.nomad.version}", "version", ">= 0.9")));
+    }
+
+    @Test
+    public void testGivesBackFailedPlacements() {
+        NomadSlaveTemplate template = template(3500, 2000, "dc1");
+        node.take(template);
+        assertFalse(node.fits(template));
+        node.give(template);
+        assertTrue(node.fits(template));
+    }
+
+    @Test
+    public void testListedNodeLeavesAttributesToNomad() {
+        NomadClusterCapacity.NodeCapacity listed = new NomadClusterCapacity.NodeCapacity(parse(LISTED_NODE), false);
+        assertTrue(listed.fits(template(1000, 2000, "dc1")));
+        assertTrue(listed.matches(template(100, 100, "dc1")));
+        assertFalse(listed.matches(template(100, 100, "dc1", "exec")));
+        assertTrue(listed.satisfies(new NomadConstraintTemplate("${attr.kernel.name}", "=", "windows")));
+        assertFalse(listed.satisfies(new NomadConstraintTemplate("${node.class}", "=", "test")));
+    }
+
+    private static NomadSlaveTemplate template(int cpu, int memory, String datacenters) {
+        return template(cpu, memory, datacenters, "docker");
+    }
+
+    private static NomadSlaveTemplate template(int cpu, int memory, String datacenters, String driver) {
+        NomadSlaveTemplate template = mock(NomadSlaveTemplate.class);
+        when(template.getCpu()).thenReturn(cpu);
+        when(template.getMemory()).thenReturn(memory);
+        when(template.getDisk()).thenReturn(300);
+        when(template.getDatacenters()).thenReturn(datacenters);
+        when(template.getDriver()).thenReturn(driver);
+        when(template.getConstraints()).thenReturn(Collections.<NomadConstraintTemplate>emptyList());
+        return template;
+    }
+
+    private static JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+}
@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.nomad;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NomadDemandForecastTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private NomadDemandForecast forecast = new NomadDemandForecast(ZoneOffset.UTC);
+
+    @Test
+    public void testUnknownLabelPredictsNothing() {
+        assertEquals(0, forecast.predict("linux", MINUTE, 0), 0);
+    }
+
+    @Test
+    public void testFollowsSteadyDemand() {
+        for (int i = 0; i < 20; i++) {
+            forecast.record("linux", 4, i * 10_000L);
+        }
+        assertEquals(4, forecast.predict("linux", MINUTE, 200_000L), 0.01);
+    }
+
+    @Test
+    public void testExpectsDailyPeak() {
+        long peak = 2 * 60 * MINUTE;
+        forecast.record("linux", 0, peak - 30 * MINUTE);
+        forecast.record("linux", 20, peak);
+        forecast.record("linux", 0, peak + 30 * MINUTE);
+
+        // Quiet the next day until shortly before the peak
+        for (long t = DAY; t < DAY + peak - 5 * MINUTE; t += 5 * MINUTE) {
+            forecast.record("linux", 0, t);
+        }
+        assertTrue(forecast.predict("linux", 5 * MINUTE, DAY + peak - 5 * MINUTE) >= 20);
+    }
+}
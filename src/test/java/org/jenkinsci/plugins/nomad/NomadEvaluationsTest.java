@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.nomad;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NomadEvaluationsTest {
+
+    @Test
+    public void testPlacedEvaluationHasNoFailure() {
+        assertNull(NomadEvaluations.failure(parse("{\"ID\":\"e1\",\"Status\":\"complete\",\"FailedTGAllocs\":null}")));
+    }
+
+    @Test
+    public void testUnplacedEvaluationExplainsWhy() {
+        JsonObject evaluation = parse("{\"ID\":\"e1\",\"Status\":\"complete\",\"FailedTGAllocs\":{\"jenkins-slave-taskgroup\":"
+                + "{\"NodesEvaluated\":3,\"ConstraintFiltered\":{\"${attr.kernel.name} = linx\":3}}}}");
+        assertEquals("Evaluation e1 is complete: jenkins-slave-taskgroup: constraint ${attr.kernel.name} = linx filtered 3 nodes",
+                NomadEvaluations.failure(evaluation));
+    }
+
+    private static JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+}
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.nomad;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NomadHttpTransportTest {
+
+    @Test
+    public void testTokenInterceptorAddsCurrentToken() throws Exception {
+        AtomicReference<String> token = new AtomicReference<>("first");
+        NomadHttpTransport.TokenInterceptor interceptor = new NomadHttpTransport.TokenInterceptor(token::get);
+
+        assertEquals("first", intercept(interceptor).header("X-Nomad-Token"));
+
+        token.set("second");
+        assertEquals("second", intercept(interceptor).header("X-Nomad-Token"));
+    }
+
+    @Test
+    public void testTokenInterceptorLeavesRequestsWithoutToken() throws Exception {
+        NomadHttpTransport.TokenInterceptor interceptor = new NomadHttpTransport.TokenInterceptor(() -> null);
+
+        assertNull(intercept(interceptor).header("X-Nomad-Token"));
+    }
+
+    private static Request intercept(Interceptor interceptor) throws Exception {
+        Interceptor.Chain chain = mock(Interceptor.Chain.class);
+        when(chain.request()).thenReturn(new Request.Builder().url("http://localhost/v1/jobs").build());
+
+        interceptor.intercept(chain);
+
+        ArgumentCaptor<Request> sent = ArgumentCaptor.forClass(Request.class);
+        verify(chain).proceed(sent.capture());
+        return sent.getValue();
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.nomad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class NomadLaunchTimeoutsTest {
+
+    private static final long FLOOR = 30_000;
+    private static final long CEILING = 600_000;
+
+    private NomadLaunchTimeouts timeouts = new NomadLaunchTimeouts();
+    private NomadSlaveTemplate template = mock(NomadSlaveTemplate.class);
+
+    @Test
+    public void testCeilingUntilEnoughLaunches() {
+        timeouts.record(template, 20_000);
+        assertEquals(CEILING, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+    }
+
+    @Test
+    public void testFollowsHighPercentile() {
+        for (int i = 1; i <= 20; i++) {
+            timeouts.record(template, i * 10_000L);
+        }
+        // The 95th percentile of 10 to 200 seconds is 190 seconds, doubled
+        assertEquals(380_000, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+    }
+
+    @Test
+    public void testBoundedByFloorAndCeiling() {
+        NomadSlaveTemplate slow = mock(NomadSlaveTemplate.class);
+        for (int i = 0; i < 10; i++) {
+            timeouts.record(template, 5_000);
+            timeouts.record(slow, 400_000);
+        }
+        assertEquals(FLOOR, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+        assertEquals(CEILING, timeouts.getTimeoutMillis(slow, FLOOR, CEILING));
+    }
+
+    @Test
+    public void testTimedOutLaunchesRaiseTimeout() {
+        for (int i = 0; i < 10; i++) {
+            timeouts.record(template, 20_000);
+        }
+        assertEquals(FLOOR + 10_000, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+
+        // Launches became slower and time out, each counts as taking as long as it was given
+        for (int i = 0; i < 5; i++) {
+            timeouts.timedOut(template, 40_000);
+            timeouts.record(template, 20_000);
+        }
+        assertEquals(80_000, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+    }
+
+    @Test
+    public void testCeilingAfterConsecutiveTimeouts() {
+        for (int i = 0; i < 10; i++) {
+            timeouts.record(template, 20_000);
+        }
+        timeouts.timedOut(template, 40_000);
+        timeouts.timedOut(template, 40_000);
+        assertEquals(CEILING, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+
+        timeouts.record(template, 20_000);
+        assertEquals(80_000, timeouts.getTimeoutMillis(template, FLOOR, CEILING));
+    }
+}
@@ -0,0 +1,26 @@
+package org.jenkinsci.plugins.nomad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class NomadProvisioningStrategyTest {
+
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+
+    @Test
+    public void testApportionsByWeight() {
+        assertArrayEquals(new int[]{4, 2}, NomadProvisioningStrategy.apportion(new double[]{2, 1}, new int[]{UNLIMITED, UNLIMITED}, 6));
+    }
+
+    @Test
+    public void testApportionRespectsLimits() {
+        assertArrayEquals(new int[]{1, 5}, NomadProvisioningStrategy.apportion(new double[]{2, 1}, new int[]{1, UNLIMITED}, 6));
+        assertArrayEquals(new int[]{1, 2}, NomadProvisioningStrategy.apportion(new double[]{2, 1}, new int[]{1, 2}, 6));
+    }
+
+    @Test
+    public void testApportionSkipsZeroWeights() {
+        assertArrayEquals(new int[]{0, 3}, NomadProvisioningStrategy.apportion(new double[]{0, 1}, new int[]{UNLIMITED, UNLIMITED}, 3));
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares resolving a label by matching it against every template with the indexed and cached resolution.
+ * The label looked up belongs to the last template, which is the worst case for the linear match.
+ *
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.plugins.nomad.NomadTemplateResolverBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NomadTemplateResolverBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int templates;
+
+    private NomadTemplateResolver resolver;
+    private Label atom;
+    private Label expression;
+
+    @Setup
+    public void setUp() {
+        List<NomadSlaveTemplate> list = new ArrayList<>();
+        for (int i = 0; i < templates; i++) {
+            Set<LabelAtom> labels = new HashSet<>();
+            labels.add(new LabelAtom("template-" + i));
+            labels.add(new LabelAtom("group-" + (i % 10)));
+
+            NomadSlaveTemplate template = mock(NomadSlaveTemplate.class);
+            when(template.getLabelSet()).thenReturn(labels);
+            list.add(template);
+        }
+        resolver = new NomadTemplateResolver(list);
+
+        int last = templates - 1;
+        atom = new LabelAtom("template-" + last);
+        expression = new LabelExpression.And(new LabelAtom("template-" + last), new LabelAtom("group-" + (last % 10)));
+    }
+
+    @Benchmark
+    public NomadSlaveTemplate matchAtom() {
+        return resolver.match(atom);
+    }
+
+    @Benchmark
+    public NomadSlaveTemplate resolveAtom() {
+        return resolver.resolve(atom);
+    }
+
+    @Benchmark
+    public NomadSlaveTemplate matchExpression() {
+        return resolver.match(expression);
+    }
+
+    @Benchmark
+    public NomadSlaveTemplate resolveExpression() {
+        return resolver.resolve(expression);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NomadTemplateResolverBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.nomad;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NomadTemplateResolverTest {
+
+    private LabelAtom linux = mock(LabelAtom.class);
+    private LabelAtom docker = mock(LabelAtom.class);
+
+    private NomadSlaveTemplate unlabeled = template();
+    private NomadSlaveTemplate linuxOnly = template(linux);
+    private NomadSlaveTemplate linuxDocker = template(linux, docker);
+
+    private NomadTemplateResolver resolver = new NomadTemplateResolver(Arrays.asList(linuxOnly, unlabeled, linuxDocker));
+
+    @Test
+    public void testResolvesAtomsToFirstTemplate() {
+        assertSame(linuxOnly, resolver.resolve(linux));
+        assertSame(linuxDocker, resolver.resolve(docker));
+        assertNull(resolver.resolve(mock(LabelAtom.class)));
+    }
+
+    @Test
+    public void testResolvesNullLabelToUnlabeledTemplate() {
+        assertSame(unlabeled, resolver.resolve(null));
+    }
+
+    @Test
+    public void testMatchesExpressionsOnce() {
+        Label expression = mock(Label.class);
+        when(expression.matches(linuxDocker.getLabelSet())).thenReturn(true);
+
+        assertSame(linuxDocker, resolver.resolve(expression));
+        assertSame(linuxDocker, resolver.resolve(expression));
+        verify(expression, times(1)).matches(linuxDocker.getLabelSet());
+    }
+
+    private static NomadSlaveTemplate template(LabelAtom... labels) {
+        Set<LabelAtom> labelSet = labels.length == 0 ? Collections.<LabelAtom>emptySet() : new HashSet<>(Arrays.asList(labels));
+        NomadSlaveTemplate template = mock(NomadSlaveTemplate.class);
+        when(template.getLabelSet()).thenReturn(labelSet);
+        return template;
+    }
+}